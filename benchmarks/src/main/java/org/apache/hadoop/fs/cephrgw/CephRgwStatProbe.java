@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Direct access to the two stat paths of the JNI layer, for benchmarks.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Looks up the stat of one entry of a directory through either path of the JNI layer: rgwLookup followed by
+ * rgwGetattr, whose stat comes back through the receiver upcall, or rgwLookupStat, which packs the stat into
+ * a long[] in the same crossing as the lookup. Both build the same FileStatus and release the handle.
+ * It lives in the file system package because both paths are internal.
+ */
+public class CephRgwStatProbe implements Closeable {
+    private final CephRgwFileSystem fileSystem;
+    private final LibRGWFH dirFh;
+    private final long fsPtr;
+    private final long dirFhPtr;
+    private final long[] stat = new long[4];
+    private final AbstractFileHandlerReceiver receiver;
+    private FileStatus received;
+
+    /**
+     * Open the directory whose entries are probed.
+     *
+     * @param fileSystem the file system
+     * @param dir the absolute directory path
+     * @throws IOException failure
+     */
+    public CephRgwStatProbe(CephRgwFileSystem fileSystem, Path dir) throws IOException {
+        this.fileSystem = fileSystem;
+        this.dirFh = fileSystem.getFileHandleByAbsPath(dir, CephRgwFileSystem.LOOKUP_FLAG_NONE, false, false);
+        this.fsPtr = dirFh.getFsPtr();
+        this.dirFhPtr = dirFh.getFhPtr();
+        this.receiver = new AbstractFileHandlerReceiver(fileSystem) {
+            @Override
+            void receiveFileHandler(String name, int mask, FileStatus fileStatus) {
+                received = fileStatus;
+            }
+        };
+    }
+
+    /**
+     * Stat an entry with a lookup and a getattr upcall.
+     *
+     * @param name the entry name
+     * @param path the path of the entry
+     * @return the status
+     * @throws IOException failure
+     */
+    public FileStatus upcall(String name, Path path) throws IOException {
+        try {
+            long fh = fileSystem.rgwLookup(fsPtr, dirFhPtr, name, 0, 0, CephRgwFileSystem.LOOKUP_FLAG_NONE);
+            try {
+                fileSystem.rgwGetattr(fsPtr, fh, receiver);
+                received.setPath(path);
+                return received;
+            } finally {
+                fileSystem.rgwClose(fsPtr, fh);
+            }
+        } catch (CephRgwException e) {
+            throw new IOException("stat " + path + " failed.", e);
+        }
+    }
+
+    /**
+     * Stat an entry with a lookup that packs the stat into a long[].
+     *
+     * @param name the entry name
+     * @param path the path of the entry
+     * @return the status
+     * @throws IOException failure
+     */
+    public FileStatus packed(String name, Path path) throws IOException {
+        try {
+            long fh = fileSystem.rgwLookupStat(fsPtr, dirFhPtr, name, CephRgwFileSystem.LOOKUP_FLAG_NONE, stat);
+            try {
+                return fileSystem.newFileStatus(stat[0], stat[1], stat[2], (int) stat[3], path);
+            } finally {
+                fileSystem.rgwClose(fsPtr, fh);
+            }
+        } catch (CephRgwException e) {
+            throw new IOException("stat " + path + " failed.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        dirFh.close();
+    }
+}
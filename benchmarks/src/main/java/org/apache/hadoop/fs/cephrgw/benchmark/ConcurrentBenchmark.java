@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Concurrent benchmarks of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw.benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.StorageStatistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens and stats of files shared by several threads, which contend on the stripes of the handle caches
+ * and on the librgw mounts.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class ConcurrentBenchmark {
+    private static final int DIRS = 16;
+
+    private static final int FILES_PER_DIR = 16;
+
+    /**
+     * Small files in a few directories, opened through the handle cache.
+     */
+    public static class FilesState extends FakeRgwState {
+        @Param({"1", "4"})
+        public int mounts;
+
+        @Param({"1", "16"})
+        public int handleCacheStripes;
+
+        public Path[] files;
+
+        @Override
+        protected Configuration configure(Configuration conf) {
+            // Only a read-only file system caches the handles of files.
+            conf.setBoolean("fs.ceph.rgw.ensure-readonly", true);
+            conf.setInt("fs.ceph.rgw.fh.cache.stripes", handleCacheStripes);
+            conf.setInt("fs.ceph.rgw.mounts", mounts);
+            // Every getFileStatus goes to librgw.
+            conf.setLong("fs.ceph.rgw.metadata.cache.ttl", 0);
+            return conf;
+        }
+
+        @Override
+        protected void prepare() throws IOException {
+            files = new Path[DIRS * FILES_PER_DIR];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = new Path(baseDir, "dir-" + (i / FILES_PER_DIR) + "/file-" + (i % FILES_PER_DIR));
+                try (FSDataOutputStream out = fs.create(files[i])) {
+                    out.write(i);
+                }
+            }
+        }
+
+        @Override
+        protected void finish() {
+            StorageStatistics statistics = fs.getStorageStatistics();
+            System.out.printf("%nfh_cache: %d hits, %d misses, %d contentions; dir_cache: %d hits, %d contentions%n",
+                    statistics.getLong("fh_cache_hits"), statistics.getLong("fh_cache_misses"),
+                    statistics.getLong("fh_cache_contentions"), statistics.getLong("dir_cache_hits"),
+                    statistics.getLong("dir_cache_contentions"));
+        }
+
+        public Path nextFile() {
+            return files[ThreadLocalRandom.current().nextInt(files.length)];
+        }
+    }
+
+    @Benchmark
+    public int openRead(FilesState state) throws IOException {
+        try (FSDataInputStream in = state.fs.open(state.nextFile())) {
+            return in.read();
+        }
+    }
+
+    @Benchmark
+    public FileStatus getFileStatus(FilesState state) throws IOException {
+        return state.fs.getFileStatus(state.nextFile());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Delete benchmarks of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw.benchmark;
+
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recursive delete of a tree, rebuilt without injected latency before every invocation.
+ */
+@BenchmarkMode({Mode.SingleShotTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeleteBenchmark {
+    /**
+     * A tree of directories with files at every level.
+     */
+    public static class TreeState extends FakeRgwState {
+        @Param({"2", "3"})
+        public int depth;
+
+        @Param({"8"})
+        public int fanOut;
+
+        public Path tree;
+
+        @Setup(Level.Invocation)
+        public void build() throws IOException {
+            FakeRgw.setLatencyMicros(0);
+            tree = new Path(baseDir, "tree");
+            build(tree, depth);
+            FakeRgw.setLatencyMicros(latencyUs);
+        }
+
+        private void build(Path dir, int level) throws IOException {
+            fs.mkdirs(dir);
+            for (int i = 0; i < fanOut; i++) {
+                fs.create(new Path(dir, "file-" + i)).close();
+                if (level > 0) {
+                    build(new Path(dir, "dir-" + i), level - 1);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean deleteRecursive(TreeState state) throws IOException {
+        return state.fs.delete(state.tree, true);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Hooks into the fake librgw the benchmarks run against.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.cephrgw.CephRgwFileSystem;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * The benchmarks load librgw_jni built from native_rgw.c and the in-memory fake_rgw.c instead of librgw.
+ * The fake keeps one tree per process and sleeps for the injected latency in every call. CephRgwFileSystem
+ * also starts an S3A client, whose bucket probe is answered by a local HTTP endpoint that accepts every
+ * request.
+ */
+public final class FakeRgw {
+    public static final String BUCKET = "bench";
+
+    private static HttpServer s3Endpoint;
+
+    static {
+        // Initializing the file system loads librgw_jni, which holds the natives below as well.
+        try {
+            Class.forName(CephRgwFileSystem.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private FakeRgw() {
+    }
+
+    /**
+     * Set the latency injected into every librgw call, CEPHRGW_FAKE_LATENCY_US sets the initial value.
+     *
+     * @param latencyUs the latency in microseconds
+     */
+    public static native void setLatencyMicros(long latencyUs);
+
+    /**
+     * Count the handles that lookups and mkdirs handed out and that were not closed yet.
+     *
+     * @return the live handles
+     */
+    public static native long getLiveHandles();
+
+    /**
+     * Mount a file system on the fake.
+     *
+     * @param conf the configuration, fs.ceph.rgw.* settings are passed through
+     * @return the file system
+     * @throws IOException failure
+     */
+    public static synchronized FileSystem mount(Configuration conf) throws IOException {
+        if (s3Endpoint == null) {
+            s3Endpoint = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            s3Endpoint.createContext("/", exchange -> {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            s3Endpoint.start();
+        }
+        Configuration mountConf = new Configuration(conf);
+        mountConf.set("fs.cephrgw.impl", CephRgwFileSystem.class.getName());
+        mountConf.setBoolean("fs.cephrgw.impl.disable.cache", true);
+        mountConf.set("fs.s3a.endpoint", "http://127.0.0.1:" + s3Endpoint.getAddress().getPort());
+        mountConf.setIfUnset("fs.s3a.access.key", "bench");
+        mountConf.setIfUnset("fs.s3a.secret.key", "bench");
+        mountConf.setBoolean("fs.s3a.path.style.access", true);
+        mountConf.setBoolean("fs.s3a.connection.ssl.enabled", false);
+        mountConf.setInt("fs.s3a.attempts.maximum", 1);
+        return FileSystem.get(URI.create(CephRgwFileSystem.SCHEME + "://" + BUCKET + "/"), mountConf);
+    }
+}
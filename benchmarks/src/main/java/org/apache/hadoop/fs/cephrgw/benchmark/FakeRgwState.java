@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Shared state of the librgw benchmarks.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw.benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+
+/**
+ * A file system mounted on the fake librgw for one trial, with a directory of its own.
+ */
+@State(Scope.Benchmark)
+public class FakeRgwState {
+    /**
+     * The latency injected into every librgw call, in microseconds.
+     */
+    @Param({"0", "100"})
+    public long latencyUs;
+
+    public FileSystem fs;
+
+    public Path baseDir;
+
+    @Setup(Level.Trial)
+    public void mount() throws IOException {
+        FakeRgw.setLatencyMicros(0);
+        fs = FakeRgw.mount(configure(new Configuration()));
+        baseDir = new Path("/" + getClass().getSimpleName() + "-" + System.nanoTime());
+        fs.mkdirs(baseDir);
+        prepare();
+        FakeRgw.setLatencyMicros(latencyUs);
+    }
+
+    @TearDown(Level.Trial)
+    public void unmount() throws IOException {
+        FakeRgw.setLatencyMicros(0);
+        finish();
+        fs.delete(baseDir, true);
+        fs.close();
+    }
+
+    /**
+     * Adjust the configuration before mounting.
+     *
+     * @param conf the configuration
+     * @return the configuration to mount with
+     */
+    protected Configuration configure(Configuration conf) {
+        return conf;
+    }
+
+    /**
+     * Create the data of the benchmark, without injected latency.
+     *
+     * @throws IOException failure
+     */
+    protected void prepare() throws IOException {
+    }
+
+    /**
+     * Report on the trial before the data is deleted, without injected latency.
+     */
+    protected void finish() {
+    }
+}
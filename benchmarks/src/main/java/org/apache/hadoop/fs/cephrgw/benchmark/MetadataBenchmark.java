@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Metadata benchmarks of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw.benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * getFileStatus, listStatus and mkdirs.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MetadataBenchmark {
+    /**
+     * A file, looked up with and without the metadata cache.
+     */
+    public static class StatState extends FakeRgwState {
+        @Param({"0", "5000"})
+        public long metadataCacheTtl;
+
+        public Path file;
+
+        @Override
+        protected Configuration configure(Configuration conf) {
+            conf.setLong("fs.ceph.rgw.metadata.cache.ttl", metadataCacheTtl);
+            return conf;
+        }
+
+        @Override
+        protected void prepare() throws IOException {
+            file = new Path(baseDir, "a/b/c/file");
+            fs.create(file).close();
+        }
+    }
+
+    /**
+     * A directory of the given number of empty files.
+     */
+    public static class ListState extends FakeRgwState {
+        @Param({"100", "10000"})
+        public int entries;
+
+        public Path dir;
+
+        @Override
+        protected void prepare() throws IOException {
+            dir = new Path(baseDir, "dir");
+            fs.mkdirs(dir);
+            for (int i = 0; i < entries; i++) {
+                try (FSDataOutputStream out = fs.create(new Path(dir, "file-" + i))) {
+                    out.write(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * A parent under which every mkdirs creates a fresh chain of directories.
+     */
+    public static class MkdirsState extends FakeRgwState {
+        @Param({"1", "4"})
+        public int depth;
+
+        private final AtomicLong next = new AtomicLong();
+
+        public Path nextPath() {
+            Path path = new Path(baseDir, "d" + next.incrementAndGet());
+            for (int i = 1; i < depth; i++) {
+                path = new Path(path, "d" + i);
+            }
+            return path;
+        }
+    }
+
+    @Benchmark
+    public FileStatus getFileStatus(StatState state) throws IOException {
+        return state.fs.getFileStatus(state.file);
+    }
+
+    @Benchmark
+    public FileStatus[] listStatus(ListState state) throws IOException {
+        return state.fs.listStatus(state.dir);
+    }
+
+    @Benchmark
+    public boolean mkdirs(MkdirsState state) throws IOException {
+        return state.fs.mkdirs(state.nextPath());
+    }
+}
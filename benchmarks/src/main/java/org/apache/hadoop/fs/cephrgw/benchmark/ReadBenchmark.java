@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Read benchmarks of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw.benchmark;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-file reads through open, into a byte array and into a direct ByteBuffer, and small random reads
+ * through seek on an open stream.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadBenchmark {
+    private static final int SEEK_READ_SIZE = 4096;
+
+    /**
+     * A file of the given size.
+     */
+    public static class FileState extends FakeRgwState {
+        @Param({"65536", "8388608"})
+        public int fileSize;
+
+        public Path file;
+
+        @Override
+        protected void prepare() throws IOException {
+            file = new Path(baseDir, "file");
+            byte[] data = new byte[fileSize];
+            new Random(0).nextBytes(data);
+            try (FSDataOutputStream out = fs.create(file)) {
+                out.write(data);
+            }
+        }
+    }
+
+    /**
+     * A stream per thread, open on the file.
+     */
+    @State(Scope.Thread)
+    public static class StreamState {
+        public FSDataInputStream in;
+
+        public byte[] buffer;
+
+        public ByteBuffer directBuffer;
+
+        @Setup(Level.Trial)
+        public void open(FileState state) throws IOException {
+            in = state.fs.open(state.file);
+            buffer = new byte[Math.max(state.fileSize, SEEK_READ_SIZE)];
+            directBuffer = ByteBuffer.allocateDirect(buffer.length);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public void openReadClose(FileState state, StreamState stream, Blackhole blackhole) throws IOException {
+        try (FSDataInputStream in = state.fs.open(state.file)) {
+            in.readFully(stream.buffer, 0, state.fileSize);
+        }
+        blackhole.consume(stream.buffer);
+    }
+
+    @Benchmark
+    public void openReadCloseDirect(FileState state, StreamState stream, Blackhole blackhole) throws IOException {
+        ByteBuffer buffer = stream.directBuffer;
+        buffer.clear();
+        buffer.limit(state.fileSize);
+        try (FSDataInputStream in = state.fs.open(state.file)) {
+            int read = 0;
+            while (read >= 0 && buffer.hasRemaining()) {
+                read = in.read(buffer);
+            }
+        }
+        blackhole.consume(buffer);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int seekRead(FileState state, StreamState stream) throws IOException {
+        long position = ThreadLocalRandom.current().nextLong(state.fileSize - SEEK_READ_SIZE + 1);
+        stream.in.seek(position);
+        return stream.in.read(stream.buffer, 0, SEEK_READ_SIZE);
+    }
+}
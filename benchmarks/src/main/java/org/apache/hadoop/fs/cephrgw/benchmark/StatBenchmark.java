@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Stat path benchmarks of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw.benchmark;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.cephrgw.CephRgwFileSystem;
+import org.apache.hadoop.fs.cephrgw.CephRgwStatProbe;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stat of a file through the getattr upcall and through the stat packed into the lookup, the path
+ * that getFileStatus takes.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StatBenchmark {
+    private static final String NAME = "file";
+
+    /**
+     * A file and the directory it is probed in.
+     */
+    public static class ProbeState extends FakeRgwState {
+        public Path file;
+
+        public CephRgwStatProbe probe;
+
+        @Override
+        protected void prepare() throws IOException {
+            file = new Path(baseDir, NAME);
+            fs.create(file).close();
+            probe = new CephRgwStatProbe((CephRgwFileSystem) fs, baseDir);
+        }
+
+        @Override
+        protected void finish() {
+            probe.close();
+        }
+    }
+
+    @Benchmark
+    public FileStatus upcall(ProbeState state) throws IOException {
+        return state.probe.upcall(NAME, state.file);
+    }
+
+    @Benchmark
+    public FileStatus packed(ProbeState state) throws IOException {
+        return state.probe.packed(NAME, state.file);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Write benchmarks of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw.benchmark;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.cephrgw.CephRgwDataOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Create, write and close of a file. Every thread overwrites a file of its own, so the fake does not grow.
+ * The data is written once from a byte array and once from a direct ByteBuffer.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriteBenchmark {
+    /**
+     * The data to write.
+     */
+    public static class DataState extends FakeRgwState {
+        @Param({"65536", "8388608"})
+        public int fileSize;
+
+        /**
+         * The buffers a stream may have in flight to librgw, 0 writes in the caller thread.
+         */
+        @Param({"0", "2"})
+        public int writeBehindBuffers;
+
+        public byte[] data;
+
+        public ByteBuffer directData;
+
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Override
+        protected Configuration configure(Configuration conf) {
+            conf.setInt("fs.ceph.rgw.write.behind.buffers", writeBehindBuffers);
+            return conf;
+        }
+
+        @Override
+        protected void prepare() {
+            data = new byte[fileSize];
+            new Random(0).nextBytes(data);
+            directData = ByteBuffer.allocateDirect(fileSize);
+            directData.put(data);
+            directData.flip();
+        }
+    }
+
+    /**
+     * The file of a thread.
+     */
+    @State(Scope.Thread)
+    public static class FileState {
+        public Path file;
+
+        @Setup(Level.Trial)
+        public void setUp(DataState state) {
+            file = new Path(state.baseDir, "file-" + state.threads.incrementAndGet());
+        }
+    }
+
+    @Benchmark
+    public void createWriteClose(DataState state, FileState file) throws IOException {
+        try (FSDataOutputStream out = state.fs.create(file.file, true)) {
+            out.write(state.data);
+        }
+    }
+
+    @Benchmark
+    public void createWriteCloseDirect(DataState state, FileState file) throws IOException {
+        try (CephRgwDataOutputStream out = (CephRgwDataOutputStream) state.fs.create(file.file, true)) {
+            out.write(state.directData.duplicate());
+        }
+    }
+}
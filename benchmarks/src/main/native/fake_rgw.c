@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: In-memory stand-in for librgw, linked with native_rgw.c to benchmark without a Ceph cluster.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <errno.h>
+#include <pthread.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include "jni.h"
+#include "rgw_file.h"
+
+/*
+ * A single tree of nodes behind a read-write lock. Every call sleeps for the injected latency before it
+ * takes the lock, so concurrent calls overlap like requests to a gateway. Children keep their creation
+ * order, and the readdir cookie is the creation sequence of the last entry returned, so a listing resumes
+ * after that entry even when earlier entries were removed, as with the name marker of RGW.
+ */
+typedef struct Node {
+    char *name;
+    bool isDir;
+    char *data;
+    size_t size;
+    size_t capacity;
+    time_t mtime;
+    uint64_t seq;
+    struct Node *parent;
+    struct Node *child;
+    struct Node *next;
+    struct rgw_file_handle fh;
+} Node;
+
+static pthread_rwlock_t g_treeLock = PTHREAD_RWLOCK_INITIALIZER;
+static Node *g_root = NULL;
+static uint64_t g_seq = 0;
+static long g_latencyUs = -1;
+static long g_liveHandles = 0;
+
+static void InjectLatency(void)
+{
+    long latency = __atomic_load_n(&g_latencyUs, __ATOMIC_RELAXED);
+    if (latency < 0) {
+        const char *env = getenv("CEPHRGW_FAKE_LATENCY_US");
+        latency = env ? atol(env) : 0;
+        __atomic_store_n(&g_latencyUs, latency, __ATOMIC_RELAXED);
+    }
+    if (latency > 0) {
+        usleep((useconds_t) latency);
+    }
+}
+
+static Node *NewNode(Node *parent, const char *name, size_t nameLen, bool isDir)
+{
+    Node *node = calloc(1, sizeof(Node));
+    node->name = strndup(name, nameLen);
+    node->isDir = isDir;
+    node->mtime = time(NULL);
+    node->seq = ++g_seq;
+    node->fh.fh_private = node;
+    node->fh.fh_type = isDir ? RGW_FS_TYPE_DIRECTORY : RGW_FS_TYPE_FILE;
+    if (parent) {
+        Node **tail = &parent->child;
+        while (*tail) {
+            tail = &(*tail)->next;
+        }
+        node->parent = parent;
+        *tail = node;
+    }
+    return node;
+}
+
+static Node *FindChild(const Node *dir, const char *name, size_t nameLen)
+{
+    for (Node *child = dir->child; child; child = child->next) {
+        if (strlen(child->name) == nameLen && !strncmp(child->name, name, nameLen)) {
+            return child;
+        }
+    }
+    return NULL;
+}
+
+static void Detach(Node *node)
+{
+    Node **link = &node->parent->child;
+    while (*link != node) {
+        link = &(*link)->next;
+    }
+    *link = node->next;
+    node->next = NULL;
+    node->parent = NULL;
+}
+
+static void FillStat(const Node *node, struct stat *st)
+{
+    memset(st, 0, sizeof(*st));
+    st->st_mode = node->isDir ? (S_IFDIR | 0777) : (S_IFREG | 0666);
+    st->st_size = node->isDir ? 0 : (off_t) node->size;
+    st->st_mtime = node->mtime;
+    st->st_atime = node->mtime;
+}
+
+static struct rgw_file_handle *Retain(Node *node)
+{
+    __atomic_add_fetch(&g_liveHandles, 1, __ATOMIC_RELAXED);
+    return &node->fh;
+}
+
+int librgw_create(librgw_t *rgw, int argc, char **argv)
+{
+    *rgw = (librgw_t) &g_treeLock;
+    return 0;
+}
+
+void librgw_shutdown(librgw_t rgw)
+{
+}
+
+int rgw_mount2(librgw_t rgw, const char *uid, const char *key, const char *secret, const char *root,
+    struct rgw_fs **rgw_fs, uint32_t flags)
+{
+    pthread_rwlock_wrlock(&g_treeLock);
+    if (!g_root) {
+        g_root = NewNode(NULL, "/", 1, true);
+    }
+    pthread_rwlock_unlock(&g_treeLock);
+    struct rgw_fs *fs = calloc(1, sizeof(struct rgw_fs));
+    fs->rgw = rgw;
+    fs->root_fh = &g_root->fh;
+    *rgw_fs = fs;
+    return 0;
+}
+
+int rgw_umount(struct rgw_fs *rgw_fs, uint32_t flags)
+{
+    free(rgw_fs);
+    return 0;
+}
+
+int rgw_lookup(struct rgw_fs *rgw_fs, struct rgw_file_handle *parent_fh, const char *path,
+    struct rgw_file_handle **fh, struct stat *st, uint32_t mask, uint32_t flags)
+{
+    InjectLatency();
+    /* A lookup may create the last component, or a bucket below the root. */
+    pthread_rwlock_wrlock(&g_treeLock);
+    Node *node = parent_fh->fh_private;
+    const char *name = path;
+    int ret = 0;
+    while (*name) {
+        const char *slash = strchr(name, '/');
+        size_t nameLen = slash ? (size_t) (slash - name) : strlen(name);
+        if (nameLen == 0) {
+            name++;
+            continue;
+        }
+        if (!node->isDir) {
+            ret = -ENOTDIR;
+            break;
+        }
+        Node *child = FindChild(node, name, nameLen);
+        if (!child) {
+            if (node == g_root) {
+                child = NewNode(node, name, nameLen, true);
+            } else if (!slash && (flags & RGW_LOOKUP_FLAG_CREATE)) {
+                bool isDir = (flags & RGW_LOOKUP_FLAG_DIR) && !(flags & RGW_LOOKUP_FLAG_FILE);
+                child = NewNode(node, name, nameLen, isDir);
+            } else {
+                ret = -ENOENT;
+                break;
+            }
+        }
+        node = child;
+        name = slash ? slash + 1 : name + nameLen;
+    }
+    if (ret == 0) {
+        *fh = Retain(node);
+        if (st) {
+            FillStat(node, st);
+        }
+    }
+    pthread_rwlock_unlock(&g_treeLock);
+    return ret;
+}
+
+int rgw_getattr(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, struct stat *st, uint32_t flags)
+{
+    InjectLatency();
+    pthread_rwlock_rdlock(&g_treeLock);
+    FillStat(fh->fh_private, st);
+    pthread_rwlock_unlock(&g_treeLock);
+    return 0;
+}
+
+int rgw_open(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, uint32_t posix_flags, uint32_t flags)
+{
+    return 0;
+}
+
+int rgw_close(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, uint32_t flags)
+{
+    __atomic_sub_fetch(&g_liveHandles, 1, __ATOMIC_RELAXED);
+    return 0;
+}
+
+int rgw_read(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, uint64_t offset, size_t length, size_t *bytes_read,
+    void *buffer, uint32_t flags)
+{
+    InjectLatency();
+    pthread_rwlock_rdlock(&g_treeLock);
+    const Node *node = fh->fh_private;
+    size_t count = 0;
+    if (offset < node->size) {
+        count = node->size - offset < length ? node->size - offset : length;
+        memcpy(buffer, node->data + offset, count);
+    }
+    *bytes_read = count;
+    pthread_rwlock_unlock(&g_treeLock);
+    return 0;
+}
+
+int rgw_write(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, uint64_t offset, size_t length,
+    size_t *bytes_written, void *buffer, uint32_t flags)
+{
+    InjectLatency();
+    pthread_rwlock_wrlock(&g_treeLock);
+    Node *node = fh->fh_private;
+    int ret = 0;
+    /* Like RGW, an object is written sequentially, a write at offset 0 starts it over. */
+    if (offset != 0 && offset != node->size) {
+        ret = -EIO;
+    } else {
+        if (offset + length > node->capacity) {
+            node->capacity = (offset + length) * 2;
+            node->data = realloc(node->data, node->capacity);
+        }
+        memcpy(node->data + offset, buffer, length);
+        node->size = offset + length;
+        node->mtime = time(NULL);
+        *bytes_written = length;
+    }
+    pthread_rwlock_unlock(&g_treeLock);
+    return ret;
+}
+
+int rgw_mkdir(struct rgw_fs *rgw_fs, struct rgw_file_handle *parent_fh, const char *name, struct stat *st,
+    uint32_t mask, struct rgw_file_handle **fh, uint32_t flags)
+{
+    InjectLatency();
+    pthread_rwlock_wrlock(&g_treeLock);
+    Node *parent = parent_fh->fh_private;
+    int ret = 0;
+    if (FindChild(parent, name, strlen(name))) {
+        ret = -EEXIST;
+    } else {
+        Node *dir = NewNode(parent, name, strlen(name), true);
+        *fh = Retain(dir);
+        FillStat(dir, st);
+    }
+    pthread_rwlock_unlock(&g_treeLock);
+    return ret;
+}
+
+int rgw_unlink(struct rgw_fs *rgw_fs, struct rgw_file_handle *parent_fh, const char *path, uint32_t flags)
+{
+    InjectLatency();
+    pthread_rwlock_wrlock(&g_treeLock);
+    Node *child = FindChild(parent_fh->fh_private, path, strlen(path));
+    int ret = 0;
+    if (!child) {
+        ret = -ENOENT;
+    } else if (child->child) {
+        ret = -ENOTEMPTY;
+    } else {
+        /* Handles are not counted per node, so an unlinked node stays allocated, only its data is freed. */
+        Detach(child);
+        free(child->data);
+        child->data = NULL;
+        child->size = 0;
+        child->capacity = 0;
+    }
+    pthread_rwlock_unlock(&g_treeLock);
+    return ret;
+}
+
+int rgw_rename(struct rgw_fs *rgw_fs, struct rgw_file_handle *olddir, const char *old_name,
+    struct rgw_file_handle *newdir, const char *new_name, uint32_t flags)
+{
+    InjectLatency();
+    pthread_rwlock_wrlock(&g_treeLock);
+    Node *newParent = newdir->fh_private;
+    Node *child = FindChild(olddir->fh_private, old_name, strlen(old_name));
+    int ret = 0;
+    if (!child) {
+        ret = -ENOENT;
+    } else if (child->isDir) {
+        /* RGW does not rename directories either. */
+        ret = -EPERM;
+    } else {
+        Node *replaced = FindChild(newParent, new_name, strlen(new_name));
+        if (replaced) {
+            Detach(replaced);
+        }
+        Detach(child);
+        free(child->name);
+        child->name = strdup(new_name);
+        Node **tail = &newParent->child;
+        while (*tail) {
+            tail = &(*tail)->next;
+        }
+        child->parent = newParent;
+        *tail = child;
+    }
+    pthread_rwlock_unlock(&g_treeLock);
+    return ret;
+}
+
+int rgw_readdir(struct rgw_fs *rgw_fs, struct rgw_file_handle *parent_fh, uint64_t *offset, rgw_readdir_cb rcb,
+    void *cb_arg, bool *eof, uint32_t flags)
+{
+    InjectLatency();
+    pthread_rwlock_rdlock(&g_treeLock);
+    const Node *child = ((const Node *) parent_fh->fh_private)->child;
+    while (child && child->seq <= *offset) {
+        child = child->next;
+    }
+    *eof = true;
+    while (child) {
+        struct stat st;
+        FillStat(child, &st);
+        uint32_t type = child->isDir ? RGW_LOOKUP_FLAG_DIR : RGW_LOOKUP_FLAG_FILE;
+        *offset = child->seq;
+        bool more = rcb(child->name, cb_arg, child->seq, &st, 0, type);
+        child = child->next;
+        if (!more) {
+            *eof = child == NULL;
+            break;
+        }
+    }
+    pthread_rwlock_unlock(&g_treeLock);
+    return 0;
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_benchmark_FakeRgw_setLatencyMicros(JNIEnv *env,
+    jclass clazz, jlong latencyUs)
+{
+    __atomic_store_n(&g_latencyUs, (long) latencyUs, __ATOMIC_RELAXED);
+}
+
+JNIEXPORT jlong JNICALL Java_org_apache_hadoop_fs_cephrgw_benchmark_FakeRgw_getLiveHandles(JNIEnv *env,
+    jclass clazz)
+{
+    return (jlong) __atomic_load_n(&g_liveHandles, __ATOMIC_RELAXED);
+}
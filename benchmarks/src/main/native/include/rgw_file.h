@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: The subset of rgw_file.h used by native_rgw.c, for building against the fake librgw.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#ifndef FAKE_RGW_FILE_H
+#define FAKE_RGW_FILE_H
+
+#include <stdbool.h>
+#include <stddef.h>
+#include <stdint.h>
+#include <sys/stat.h>
+#include "librgw.h"
+
+/* Values as in the rgw_file.h of Ceph. */
+enum rgw_fh_type {
+    RGW_FS_TYPE_NIL = 0,
+    RGW_FS_TYPE_FILE,
+    RGW_FS_TYPE_DIRECTORY,
+    RGW_FS_TYPE_SYMBOLIC_LINK,
+};
+
+struct rgw_fh_hk {
+    uint64_t bucket;
+    uint64_t object;
+};
+
+struct rgw_file_handle {
+    struct rgw_fh_hk fh_hk;
+    void *fh_private;
+    enum rgw_fh_type fh_type;
+};
+
+struct rgw_fs {
+    librgw_t rgw;
+    void *fs_private;
+    struct rgw_file_handle *root_fh;
+};
+
+#define RGW_LOOKUP_FLAG_NONE    0x0000
+#define RGW_LOOKUP_FLAG_CREATE  0x0001
+#define RGW_LOOKUP_FLAG_RCB     0x0002
+#define RGW_LOOKUP_FLAG_DIR     0x0004
+#define RGW_LOOKUP_FLAG_FILE    0x0008
+
+#define RGW_MOUNT_FLAG_NONE     0x0000
+#define RGW_UMOUNT_FLAG_NONE    0x0000
+#define RGW_CLOSE_FLAG_NONE     0x0000
+#define RGW_CLOSE_FLAG_RELE     0x0001
+#define RGW_READ_FLAG_NONE      0x0000
+#define RGW_WRITE_FLAG_NONE     0x0000
+#define RGW_RENAME_FLAG_NONE    0x0000
+#define RGW_UNLINK_FLAG_NONE    0x0000
+#define RGW_GETATTR_FLAG_NONE   0x0000
+#define RGW_READDIR_FLAG_NONE   0x0000
+#define RGW_MKDIR_FLAG_NONE     0x0000
+
+#define RGW_SETATTR_MODE        0x0001
+#define RGW_SETATTR_UID         0x0002
+#define RGW_SETATTR_GID         0x0004
+
+typedef bool (*rgw_readdir_cb)(const char *name, void *arg, uint64_t offset, struct stat *st, uint32_t mask,
+    uint32_t flags);
+
+int rgw_mount2(librgw_t rgw, const char *uid, const char *key, const char *secret, const char *root,
+    struct rgw_fs **rgw_fs, uint32_t flags);
+int rgw_umount(struct rgw_fs *rgw_fs, uint32_t flags);
+int rgw_lookup(struct rgw_fs *rgw_fs, struct rgw_file_handle *parent_fh, const char *path,
+    struct rgw_file_handle **fh, struct stat *st, uint32_t mask, uint32_t flags);
+int rgw_mkdir(struct rgw_fs *rgw_fs, struct rgw_file_handle *parent_fh, const char *name, struct stat *st,
+    uint32_t mask, struct rgw_file_handle **fh, uint32_t flags);
+int rgw_rename(struct rgw_fs *rgw_fs, struct rgw_file_handle *olddir, const char *old_name,
+    struct rgw_file_handle *newdir, const char *new_name, uint32_t flags);
+int rgw_unlink(struct rgw_fs *rgw_fs, struct rgw_file_handle *parent_fh, const char *path, uint32_t flags);
+int rgw_readdir(struct rgw_fs *rgw_fs, struct rgw_file_handle *parent_fh, uint64_t *offset, rgw_readdir_cb rcb,
+    void *cb_arg, bool *eof, uint32_t flags);
+int rgw_getattr(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, struct stat *st, uint32_t flags);
+int rgw_open(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, uint32_t posix_flags, uint32_t flags);
+int rgw_close(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, uint32_t flags);
+int rgw_read(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, uint64_t offset, size_t length, size_t *bytes_read,
+    void *buffer, uint32_t flags);
+int rgw_write(struct rgw_fs *rgw_fs, struct rgw_file_handle *fh, uint64_t offset, size_t length,
+    size_t *bytes_written, void *buffer, uint32_t flags);
+
+#endif
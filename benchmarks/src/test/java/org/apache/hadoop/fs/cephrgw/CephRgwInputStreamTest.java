@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Tests of the input stream of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathIsDirectoryException;
+import org.apache.hadoop.fs.cephrgw.benchmark.FakeRgw;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Input stream tests against the in-memory librgw of the benchmarks.
+ */
+public class CephRgwInputStreamTest {
+    private FileSystem fs;
+    private Path baseDir;
+
+    @Before
+    public void setUp() throws IOException {
+        Configuration conf = new Configuration();
+        // File handles are only cached on a read-only file system.
+        conf.setBoolean("fs.ceph.rgw.ensure-readonly", true);
+        conf.setLong("fs.ceph.rgw.metadata.cache.ttl", 5000);
+        conf.setInt("fs.ceph.rgw.readahead.depth", 2);
+        conf.setInt("fs.ceph.rgw.readahead.block.size", 64 * 1024);
+        conf.setLong("fs.ceph.rgw.buffer.pool.idle.ms", 500);
+        fs = FakeRgw.mount(conf);
+        baseDir = new Path("/" + getClass().getSimpleName() + "-" + System.nanoTime());
+        fs.mkdirs(baseDir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (fs != null) {
+            fs.delete(baseDir, true);
+            fs.close();
+        }
+    }
+
+    @Test
+    public void testDoubleCloseKeepsCachedHandle() throws IOException {
+        Path file = new Path(baseDir, "file");
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(42);
+        }
+        FSDataInputStream in = fs.open(file);
+        Assert.assertEquals(42, in.read());
+        in.close();
+        in.close();
+        try (FSDataInputStream again = fs.open(file)) {
+            Assert.assertEquals(42, again.read());
+        }
+    }
+
+    @Test
+    public void testDoubleReleaseKeepsCachedHandle() throws IOException {
+        Path file = new Path(baseDir, "handle");
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(7);
+        }
+        LibRGWFH handle = ((CephRgwFileSystem) fs).getFileHandleByAbsPath(file,
+                CephRgwFileSystem.LOOKUP_FLAG_NONE, true, false);
+        handle.close();
+        handle.close();
+        try (FSDataInputStream in = fs.open(file)) {
+            Assert.assertEquals(7, in.read());
+        }
+    }
+
+    @Test
+    public void testOpenDirectory() throws IOException {
+        Path dir = new Path(baseDir, "dir");
+        fs.mkdirs(dir);
+        fs.create(new Path(dir, "child")).close();
+        for (int i = 0; i < 2; i++) {
+            // The first open looks the directory up, the second finds its status in the metadata cache.
+            try {
+                fs.open(dir).close();
+                Assert.fail("opened directory " + dir);
+            } catch (PathIsDirectoryException e) {
+                // expected
+            }
+            fs.getFileStatus(dir);
+        }
+    }
+
+    @Test
+    public void testLargeReadsAfterReadAhead() throws IOException {
+        Path file = new Path(baseDir, "large");
+        byte[] data = new byte[1024 * 1024 + 123];
+        new Random(1).nextBytes(data);
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(data);
+        }
+        try (FSDataInputStream in = fs.open(file)) {
+            // A small read starts the read-ahead pipeline, the large reads after it drain the fetched
+            // block and then bypass the stream buffer.
+            byte[] actual = new byte[data.length];
+            int pos = in.read(actual, 0, 100);
+            ByteBuffer direct = ByteBuffer.allocateDirect(200 * 1024);
+            while (pos < data.length) {
+                int ret;
+                if ((pos & 1) == 0) {
+                    direct.clear();
+                    ret = in.read(direct);
+                    direct.flip();
+                    direct.get(actual, pos, ret > 0 ? ret : 0);
+                } else {
+                    ret = in.read(actual, pos, Math.min(200 * 1024, data.length - pos));
+                }
+                Assert.assertTrue("read returned " + ret + " at " + pos, ret > 0);
+                pos += ret;
+            }
+            Assert.assertArrayEquals(data, actual);
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testHeapReadLargerThanNativeScratch() throws IOException {
+        Path file = new Path(baseDir, "heap");
+        byte[] data = new byte[5 * 1024 * 1024 / 2 + 7];
+        new Random(2).nextBytes(data);
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(data);
+        }
+        try (FSDataInputStream in = fs.open(file)) {
+            // The native heap read copies through a bounded per-thread buffer, so this read spans several chunks.
+            byte[] actual = new byte[data.length + 10];
+            Assert.assertEquals(data.length, in.read(0, actual, 5, data.length));
+            for (int i = 0; i < data.length; i++) {
+                Assert.assertEquals("byte " + i, data[i], actual[i + 5]);
+            }
+        }
+    }
+
+    @Test
+    public void testBufferReleasedAtEof() throws IOException {
+        Path file = new Path(baseDir, "eof");
+        byte[] data = new byte[200 * 1024];
+        new Random(3).nextBytes(data);
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(data);
+        }
+        CephRgwBufferPool pool = ((CephRgwFileSystem) fs).getBufferPool();
+        try (FSDataInputStream in = fs.open(file)) {
+            byte[] actual = new byte[data.length];
+            int pos = 0;
+            while (pos < data.length) {
+                pos += in.read(actual, pos, Math.min(1000, data.length - pos));
+                if (pos < data.length) {
+                    Assert.assertTrue(pool.getUsedBytes() > 0);
+                }
+            }
+            Assert.assertArrayEquals(data, actual);
+            Assert.assertEquals(0, pool.getUsedBytes());
+            in.seek(0);
+            Assert.assertEquals(data[0] & 0xff, in.read());
+        }
+        Assert.assertEquals(0, pool.getUsedBytes());
+    }
+
+    @Test
+    public void testIdleStreamAndPoolReleaseBuffers() throws Exception {
+        Path file = new Path(baseDir, "idle");
+        byte[] data = new byte[200 * 1024];
+        new Random(4).nextBytes(data);
+        try (FSDataOutputStream out = fs.create(file)) {
+            out.write(data);
+        }
+        CephRgwBufferPool pool = ((CephRgwFileSystem) fs).getBufferPool();
+        // Left open on purpose, the sweeper takes its buffers back once it sits idle.
+        FSDataInputStream in = fs.open(file);
+        Assert.assertEquals(data[0] & 0xff, in.read());
+        Assert.assertTrue(pool.getUsedBytes() > 0);
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((pool.getUsedBytes() > 0 || pool.getAllocatedBytes() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(0, pool.getUsedBytes());
+        Assert.assertEquals(0, pool.getAllocatedBytes());
+        Assert.assertTrue(pool.getTrimmedBytes() > 0);
+        Assert.assertEquals(data[1] & 0xff, in.read());
+        in.close();
+    }
+}
@@ -106,20 +106,57 @@ JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_stati
     jclass fsrecv)
 {
     g_fsclass = oriclass;
-    int errcode = librgw_create(&g_rgwMountId , 1, &g_nullStr);
-    if (CallCephRgwException(env, "librgw_create", errcode, "")) {
-        return;
-    }
     g_exceptionCallMethod = GetStaticMethodAndThrow(env, oriclass, "throwRgwExceptionForNative",
         "(ILjava/lang/String;)V");
     if (!g_exceptionCallMethod) {
         return;
     }
-    g_recvFsMethod = GetMethodAndThrow(env, fsrecv, "receiveFileHandler", "(Ljava/lang/String;JI)V");
+    g_recvFsMethod = GetMethodAndThrow(env, fsrecv, "receiveFileHandler", "(Ljava/lang/String;JJJII)V");
     if (!g_recvFsMethod) {
         return;
     }
 }
+/*
+ * Create the librgw instance of the process. The arguments are parsed like those of a Ceph command line, after
+ * the program name, so they can set any Ceph or rgw option. The caller makes sure that this runs once.
+ */
+JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwCreate(JNIEnv *env, jclass oriclass,
+    jobjectArray args)
+{
+    if (g_rgwMountId != NULL) {
+        return;
+    }
+    jsize argc = (*env)->GetArrayLength(env, args);
+    char **argv = calloc(argc + 1, sizeof(char *));
+    jstring *strs = calloc(argc + 1, sizeof(jstring));
+    if (argv == NULL || strs == NULL) {
+        free(argv);
+        free(strs);
+        Throw(env, "java/lang/OutOfMemoryError", "librgw_create arguments");
+        return;
+    }
+    argv[0] = g_nullStr;
+    jsize count = 1;
+    for (jsize i = 0; i < argc; i++) {
+        strs[count] = (jstring)(*env)->GetObjectArrayElement(env, args, i);
+        argv[count] = (char *)(*env)->GetStringUTFChars(env, strs[count], NULL);
+        if (argv[count] == NULL) {
+            break;
+        }
+        count++;
+    }
+    if (count == argc + 1) {
+        int errcode = librgw_create(&g_rgwMountId, count, argv);
+        CallCephRgwException(env, "librgw_create", errcode, "args=%d", argc);
+    }
+    for (jsize i = 1; i < count; i++) {
+        (*env)->ReleaseStringUTFChars(env, strs[i], argv[i]);
+        (*env)->DeleteLocalRef(env, strs[i]);
+    }
+    free(argv);
+    free(strs);
+}
+
 JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwUmount(JNIEnv *env, jobject thiz, jlong fs)
 {
     if (fs != 0) {
@@ -127,41 +164,113 @@ JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwUm
     }
 }
 
+/* Heap reads go through a per-thread scratch buffer of at most READ_SCRATCH_SIZE bytes, so a large read costs
+ * no allocation and its native memory stays bounded by the number of reading threads. */
+#define READ_SCRATCH_SIZE (1024 * 1024)
+static pthread_key_t g_readScratchKey;
+static pthread_once_t g_readScratchOnce = PTHREAD_ONCE_INIT;
+static void CreateReadScratchKey(void)
+{
+    pthread_key_create(&g_readScratchKey, free);
+}
+static jbyte *GetReadScratch(void)
+{
+    pthread_once(&g_readScratchOnce, CreateReadScratchKey);
+    jbyte *scratch = (jbyte*)pthread_getspecific(g_readScratchKey);
+    if (scratch == NULL) {
+        scratch = (jbyte*)malloc(READ_SCRATCH_SIZE);
+        if (scratch != NULL && pthread_setspecific(g_readScratchKey, scratch) != 0) {
+            free(scratch);
+            scratch = NULL;
+        }
+    }
+    return scratch;
+}
+
 JNIEXPORT jint JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwRead(JNIEnv *env, jobject thiz, jlong fs,
     jlong fh, jlong pos, jint len, jbyteArray buf, jint off)
+{
+    /* Read into native memory and copy back only the bytes read. Releasing array elements would write the
+     * whole array back and clobber concurrent reads into other regions of the same array. */
+    jbyte *scratch = GetReadScratch();
+    if (scratch == NULL) {
+        Throw(env, "java/lang/OutOfMemoryError", "rgw_read buffer");
+        return -1;
+    }
+    jint total = 0;
+    int errcode = 0;
+    while (total < len) {
+        size_t ret = 0;
+        size_t chunk = len - total < READ_SCRATCH_SIZE ? (size_t)(len - total) : READ_SCRATCH_SIZE;
+        errcode = rgw_read((FsPtr)fs, (FhPtr)fh, pos + total, chunk, &ret, scratch, RGW_READ_FLAG_NONE);
+        if (errcode != 0 || ret == 0) {
+            break;
+        }
+        (*env)->SetByteArrayRegion(env, buf, off + total, ret, scratch);
+        total += ret;
+        if (ret < chunk) {
+            break;
+        }
+    }
+    CallCephRgwException(env, "rgw_read", errcode, "fh_read=%ld;pos=%ld;len=%d;offset=%d", fh, pos, len, off);
+    return errcode != 0 ? -1 : total;
+}
+
+JNIEXPORT jint JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwReadDirect(JNIEnv *env, jobject thiz,
+    jlong fs, jlong fh, jlong pos, jint len, jobject buf, jint off)
 {
     size_t ret = -1;
-    jboolean iscopy = JNI_FALSE;
-    jbyte *buffer = (jbyte*)(*env)->GetByteArrayElements(env, buf, &iscopy);
-    int errcode = rgw_read((FsPtr)fs, (FhPtr)fh, pos, len, &ret, buffer + off, RGW_READ_FLAG_NONE);
-    (*env)->ReleaseByteArrayElements(env, buf, buffer, JNI_COMMIT);
-    if (iscopy) {
-        free(buffer);
+    jbyte *buffer = (jbyte*)(*env)->GetDirectBufferAddress(env, buf);
+    jlong capacity = (*env)->GetDirectBufferCapacity(env, buf);
+    if (buffer == NULL || off < 0 || len < 0 || (jlong)off + len > capacity) {
+        Throw(env, "java/lang/IllegalArgumentException", "buffer is not direct or range is out of bounds");
+        return -1;
     }
+    int errcode = rgw_read((FsPtr)fs, (FhPtr)fh, pos, len, &ret, buffer + off, RGW_READ_FLAG_NONE);
     CallCephRgwException(env, "rgw_read", errcode, "fh_read=%ld;pos=%ld;len=%d;offset=%d", fh, pos, len, off);
     return ret;
 }
 
-JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwWrite(JNIEnv *env, jobject thiz, jlong fs,
-    jlong fh, jlong pos, jint len, jbyteArray buf, jint off)
+static int WriteFully(jlong fs, jlong fh, jlong pos, jint len, jbyte *buffer)
 {
     size_t ret = -1;
-    jboolean iscopy = JNI_FALSE;
-    jbyte *buffer = (jbyte*)(*env)->GetByteArrayElements(env, buf, &iscopy);
     jlong remaining = len;
     int errcode = 0;
     while (remaining > 0) {
         int bias = len - remaining;
-        errcode = rgw_write((FsPtr)fs, (FhPtr)fh, pos + bias, remaining, &ret, buffer + off + bias,
-            RGW_WRITE_FLAG_NONE);
+        errcode = rgw_write((FsPtr)fs, (FhPtr)fh, pos + bias, remaining, &ret, buffer + bias, RGW_WRITE_FLAG_NONE);
         if (errcode != 0) {
             break;
         }
         remaining -= ret;
-    } 
-    if (iscopy) {
-        free(buffer);
     }
+    return errcode;
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwWrite(JNIEnv *env, jobject thiz, jlong fs,
+    jlong fh, jlong pos, jint len, jbyteArray buf, jint off)
+{
+    /* The array is only read, so release it with JNI_ABORT to skip copying it back. A critical section is not
+     * used because it would hold off the garbage collector for the whole RADOS round trip. */
+    jbyte *buffer = (jbyte*)(*env)->GetByteArrayElements(env, buf, NULL);
+    if (buffer == NULL) {
+        return;
+    }
+    int errcode = WriteFully(fs, fh, pos, len, buffer + off);
+    (*env)->ReleaseByteArrayElements(env, buf, buffer, JNI_ABORT);
+    CallCephRgwException(env, "rgw_write", errcode, "fh_write=%ld;pos=%ld;len=%d;offset=%d", fh, pos, len, off);
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwWriteDirect(JNIEnv *env, jobject thiz,
+    jlong fs, jlong fh, jlong pos, jint len, jobject buf, jint off)
+{
+    jbyte *buffer = (jbyte*)(*env)->GetDirectBufferAddress(env, buf);
+    jlong capacity = (*env)->GetDirectBufferCapacity(env, buf);
+    if (buffer == NULL || off < 0 || len < 0 || (jlong)off + len > capacity) {
+        Throw(env, "java/lang/IllegalArgumentException", "buffer is not direct or range is out of bounds");
+        return;
+    }
+    int errcode = WriteFully(fs, fh, pos, len, buffer + off);
     CallCephRgwException(env, "rgw_write", errcode, "fh_write=%ld;pos=%ld;len=%d;offset=%d", fh, pos, len, off);
 }
 
@@ -208,6 +317,35 @@ JNIEXPORT jlong JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwL
     return (jlong) ret_fh;
 }
 
+/* stat of rgwLookupStat: size, mtime (ms), atime (ms), mode */
+#define LOOKUP_STAT_FIELDS 4
+static void PutLookupStat(JNIEnv *env, jlongArray stat, const struct stat *st)
+{
+    jlong fields[LOOKUP_STAT_FIELDS];
+    fields[0] = (jlong) st->st_size;
+    fields[1] = (jlong) st->st_mtime * MS_PER_SEC;
+    fields[2] = (jlong) st->st_atime * MS_PER_SEC;
+    fields[3] = (jlong) st->st_mode;
+    (*env)->SetLongArrayRegion(env, stat, 0, LOOKUP_STAT_FIELDS, fields);
+}
+
+JNIEXPORT jlong JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwLookupStat(JNIEnv *env, jobject thiz,
+    jlong fs, jlong fh, jstring name, jint flag, jlongArray stat)
+{
+    FhPtr ret_fh = NULL;
+    struct stat st;
+    memset(&st, 0, sizeof(st));
+    const char *name_cstr = (*env)->GetStringUTFChars(env, name, NULL);
+    int errcode = rgw_lookup((FsPtr)fs, (FhPtr)fh, name_cstr, &ret_fh, &st, 0, flag);
+    if (CallCephRgwException(env, "rgw_lookup", errcode, "fh_parent=%ld;name=%s;flag=%d", fh, name_cstr, flag)) {
+        (*env)->ReleaseStringUTFChars(env, name, name_cstr);
+        return 0;
+    }
+    (*env)->ReleaseStringUTFChars(env, name, name_cstr);
+    PutLookupStat(env, stat, &st);
+    return (jlong) ret_fh;
+}
+
 JNIEXPORT jlong JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_getRootFH(JNIEnv *env, jobject thiz, jlong fs)
 {
     FsPtr fsptr = (FsPtr)fs;
@@ -236,9 +374,17 @@ JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwUn
     (*env)->ReleaseStringUTFChars(env, name, name_cstr);
 }
 
-void putFsToRecv(JNIEnv *env, jobject fsrecv, struct stat *st, uint32_t mask, const char *name)
+/* Hand the stat fields over as arguments, so that an entry costs a single crossing. */
+bool putFsToRecv(JNIEnv *env, jobject fsrecv, struct stat *st, uint32_t mask, const char *name)
 {
-    (*env)->CallVoidMethod(env, fsrecv, g_recvFsMethod, (*env)->NewStringUTF(env, name), (jlong)st, (jint)mask);
+    jstring jname = (*env)->NewStringUTF(env, name);
+    if (jname == NULL) {
+        return false;
+    }
+    (*env)->CallVoidMethod(env, fsrecv, g_recvFsMethod, jname, (jlong)st->st_size,
+        (jlong)st->st_mtime * MS_PER_SEC, (jlong)st->st_atime * MS_PER_SEC, (jint)st->st_mode, (jint)mask);
+    (*env)->DeleteLocalRef(env, jname);
+    return !(*env)->ExceptionCheck(env);
 }
 
 JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwGetattr(JNIEnv *env, jobject thiz, jlong fs,
@@ -251,69 +397,105 @@ JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwGe
     }
     putFsToRecv(env, fsrecv, &st, 0, ""); //to-do 為啥這個地方為0，後面為啥為空。
 }
-typedef struct _ReaddirArg {
-    JNIEnv *env;
-    jobject fsrecv;
-} ReaddirArg;
-static bool GetSubPathCallback(const char* name, void *arg, uint64_t offset, struct stat *st, uint32_t mask,
+/*
+ * Entries of a readdir batch, in native byte order:
+ * int name length, name bytes, long size, long mtime (ms), long atime (ms), int mode.
+ */
+#define BATCH_ENTRY_FIXED_SIZE (sizeof(jint) * 2 + sizeof(jlong) * 3)
+typedef struct _ReaddirBatchArg {
+    char *buf;
+    jlong capacity;
+    jlong used;
+    jint count;
+    uint64_t cookie;
+    bool full;
+} ReaddirBatchArg;
+static void PutBatchBytes(ReaddirBatchArg *args, const void *src, size_t len)
+{
+    memcpy(args->buf + args->used, src, len);
+    args->used += len;
+}
+static bool FillBatchCallback(const char* name, void *arg, uint64_t offset, struct stat *st, uint32_t mask,
     uint32_t flags)
 {
-    ReaddirArg *args = (ReaddirArg*) arg;
-    st->st_mode = MOD_FULL;
+    ReaddirBatchArg *args = (ReaddirBatchArg*) arg;
+    jint nameLen = (jint) strlen(name);
+    if (args->used + BATCH_ENTRY_FIXED_SIZE + nameLen > args->capacity) {
+        args->full = true;
+        return false;
+    }
+    jlong size = (jlong) st->st_size;
+    jlong mtime = (jlong) st->st_mtime * MS_PER_SEC;
+    jlong atime = (jlong) st->st_atime * MS_PER_SEC;
+    jint mode = MOD_FULL;
     if (flags & RGW_LOOKUP_FLAG_DIR) {
-        st->st_mode += DIR_FLAG;
+        mode += DIR_FLAG;
     }
-    putFsToRecv(args->env, args->fsrecv, st, mask, name);
+    PutBatchBytes(args, &nameLen, sizeof(nameLen));
+    PutBatchBytes(args, name, nameLen);
+    PutBatchBytes(args, &size, sizeof(size));
+    PutBatchBytes(args, &mtime, sizeof(mtime));
+    PutBatchBytes(args, &atime, sizeof(atime));
+    PutBatchBytes(args, &mode, sizeof(mode));
+    args->count++;
+    /* the cookie of the last entry taken is where the next batch resumes */
+    args->cookie = offset;
     return true;
 }
-JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwReaddir(JNIEnv *env, jobject thiz, jlong fs,
-    jlong fh, jobject fsrecv)
+JNIEXPORT jint JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwReaddirBatch(JNIEnv *env, jobject thiz,
+    jlong fs, jlong fh, jlongArray cookie, jobject buf)
 {
-    uint64_t offset = 0;
+    ReaddirBatchArg args;
+    jlong state[2];
     bool eof = false;
-    ReaddirArg args;
-    args.env = env;
-    args.fsrecv = fsrecv;
+    args.buf = (char*) (*env)->GetDirectBufferAddress(env, buf);
+    args.capacity = (*env)->GetDirectBufferCapacity(env, buf);
+    if (args.buf == NULL || args.capacity <= 0) {
+        Throw(env, "java/lang/IllegalArgumentException", "readdir needs a direct buffer");
+        return 0;
+    }
+    (*env)->GetLongArrayRegion(env, cookie, 0, 2, state);
+    args.used = 0;
+    args.count = 0;
+    args.full = false;
+    uint64_t offset = (uint64_t) state[0];
     do {
-        if (CallCephRgwException(env, "rgw_readdir", rgw_readdir((FsPtr)fs, (FhPtr)fh, &offset, GetSubPathCallback,
+        args.cookie = offset;
+        if (CallCephRgwException(env, "rgw_readdir", rgw_readdir((FsPtr)fs, (FhPtr)fh, &offset, FillBatchCallback,
             &args, &eof, RGW_READDIR_FLAG_NONE), "fh_readdir=%ld", fh)) {
-            return;
+            return 0;
+        }
+        if (args.count > 0) {
+            offset = args.cookie;
         }
-    } while (!eof);
+    } while (args.count == 0 && !eof && !args.full);
+    if (args.full && args.count == 0) {
+        Throw(env, "java/lang/IllegalArgumentException", "readdir buffer is smaller than an entry");
+        return 0;
+    }
+    state[0] = (jlong) offset;
+    state[1] = (eof && !args.full) ? 1 : 0;
+    (*env)->SetLongArrayRegion(env, cookie, 0, 2, state);
+    return args.count;
 }
-JNIEXPORT void JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwMkdir(JNIEnv *env, jobject thiz, jlong fs,
-    jlong fh, jstring name, jint mode)
+JNIEXPORT jlong JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_rgwMkdir(JNIEnv *env, jobject thiz,
+    jlong fs, jlong fh, jstring name, jint mode, jlongArray stat)
 {
     struct stat st;
+    memset(&st, 0, sizeof(st));
     const char *name_cstr = (*env)->GetStringUTFChars(env, name, NULL);
     st.st_uid = UID_ROOT;
     st.st_gid = GID_ROOT;
     st.st_mode = mode;
     FhPtr ret = NULL;
-    CallCephRgwException(env, "rgw_mkdir", rgw_mkdir((FsPtr)fs, (FhPtr)fh, name_cstr, &st, RGW_SETATTR_UID |
+    if (CallCephRgwException(env, "rgw_mkdir", rgw_mkdir((FsPtr)fs, (FhPtr)fh, name_cstr, &st, RGW_SETATTR_UID |
         RGW_SETATTR_GID | RGW_SETATTR_MODE, &ret, RGW_MKDIR_FLAG_NONE), "fh_parent=%ld;name=%s;uid=%d;gid=%d;mode=%d",
-        fh, name_cstr, st.st_uid, st.st_gid, st.st_mode);
+        fh, name_cstr, st.st_uid, st.st_gid, st.st_mode)) {
+        (*env)->ReleaseStringUTFChars(env, name, name_cstr);
+        return 0;
+    }
     (*env)->ReleaseStringUTFChars(env, name, name_cstr);
-}
-JNIEXPORT jlong JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_getLength(JNIEnv *env, jobject thiz, jlong ptr)
-{
-    struct stat *st = (struct stat*) ptr;
-    return (jlong) st->st_size;
-}
-JNIEXPORT jlong JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_getAccessTime(JNIEnv *env, jobject thiz,
-    jlong ptr)
-{
-    struct stat *st = (struct stat*) ptr;
-    return (jlong) st->st_atime * MS_PER_SEC;
-}
-JNIEXPORT jlong JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_getModifyTime(JNIEnv *env, jobject thiz,
-    jlong ptr)
-{
-    struct stat *st = (struct stat*) ptr;
-    return (jlong) st->st_mtime * MS_PER_SEC;
-}
-JNIEXPORT jint JNICALL Java_org_apache_hadoop_fs_cephrgw_CephRgwFileSystem_getMode(JNIEnv *env, jobject thiz, jlong ptr)
-{
-    struct stat* st = (struct stat*) ptr;
-    return (jint) st->st_mode;
+    /* rgw_mkdir stats the new directory into st and hands back a referenced handle */
+    PutLookupStat(env, stat, &st);
+    return (jlong) ret;
 }
@@ -5,7 +5,6 @@ package org.apache.hadoop.fs.cephrgw;
 
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.permission.FsPermission;
 
 import java.io.IOException;
 
@@ -19,18 +18,26 @@ public abstract class AbstractFileHandlerReceiver {
         this.fileSystem = fileSystem;
     }
 
-    void receiveFileHandler(String name, long statPtr, int mask) throws IOException {
+    /**
+     * Called from native code with the fields of a struct stat, so that one crossing carries a whole entry.
+     *
+     * @param name the entry name, empty for getattr
+     * @param length st_size
+     * @param modifyTime st_mtime in milliseconds
+     * @param accessTime st_atime in milliseconds
+     * @param mode st_mode
+     * @param mask the attribute mask of librgw
+     * @throws IOException failure
+     */
+    void receiveFileHandler(String name, long length, long modifyTime, long accessTime, int mode, int mask)
+            throws IOException {
         Path currPath = null;
         if (name != null && name.length() > 0) {
             currPath = new Path(name);
         }
-        int mode = fileSystem.getMode(statPtr);
-        receiveFileHandler(name, statPtr, mask, new FileStatus(fileSystem.getLength(statPtr), fileSystem.isDir(mode),
-                0, fileSystem.getVirtualBlockSize(), fileSystem.getModifyTime(statPtr),
-                fileSystem.getAccessTime(statPtr), new FsPermission(mode), CephRgwFileSystem.CONST_USER,
-                CephRgwFileSystem.CONST_GROUP, currPath));
+        receiveFileHandler(name, mask, fileSystem.newFileStatus(length, modifyTime, accessTime, mode, currPath));
     }
 
-    abstract void receiveFileHandler(String name, long statPtr, int mask, FileStatus fileStatus)
+    abstract void receiveFileHandler(String name, int mask, FileStatus fileStatus)
             throws IOException;
 }
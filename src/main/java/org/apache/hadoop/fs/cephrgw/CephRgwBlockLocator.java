@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Block locations of librgw files.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the virtual blocks of a file to the hosts that store them. A block covers whole stripes, the
+ * hosts of every stripe come from the placement resolver and a host ranks higher the more bytes of
+ * the block it holds. The locations of a file are cached in a bounded LRU map, keyed by path, length
+ * and modification time so that a rewritten file is resolved again.
+ */
+class CephRgwBlockLocator {
+    // The datanode port FileSystem#getFileBlockLocations reports as well.
+    private static final String NAME_SUFFIX = ":9866";
+
+    private final CephRgwPlacementResolver resolver;
+    private final String bucket;
+    private final long stripeUnit;
+    private final LinkedHashMap<String, BlockLocation[]> cache;
+
+    /**
+     * Create a locator.
+     *
+     * @param resolver the placement resolver
+     * @param bucket the bucket of the file system
+     * @param stripeUnit the RGW striping unit
+     * @param maxSize the most files to cache
+     */
+    CephRgwBlockLocator(CephRgwPlacementResolver resolver, String bucket, long stripeUnit, final int maxSize) {
+        this.resolver = resolver;
+        this.bucket = bucket;
+        this.stripeUnit = stripeUnit;
+        this.cache = new LinkedHashMap<String, BlockLocation[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BlockLocation[]> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Locate the blocks of a file that overlap a range.
+     *
+     * @param file the file status
+     * @param start the range start
+     * @param len the range length
+     * @return the overlapping blocks in offset order
+     * @throws IOException failure
+     */
+    BlockLocation[] getBlockLocations(FileStatus file, long start, long len) throws IOException {
+        BlockLocation[] all = getAll(file);
+        long end = start + len;
+        List<BlockLocation> ret = new ArrayList<>();
+        for (BlockLocation location : all) {
+            if (location.getOffset() < end && location.getOffset() + location.getLength() > start) {
+                ret.add(location);
+            }
+        }
+        return ret.toArray(new BlockLocation[0]);
+    }
+
+    private BlockLocation[] getAll(FileStatus file) throws IOException {
+        String cacheKey = file.getPath().toString() + "#" + file.getLen() + "#" + file.getModificationTime();
+        synchronized (this) {
+            BlockLocation[] cached = cache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        BlockLocation[] locations = resolve(file);
+        synchronized (this) {
+            cache.put(cacheKey, locations);
+        }
+        return locations;
+    }
+
+    private BlockLocation[] resolve(FileStatus file) throws IOException {
+        String key = file.getPath().toUri().getPath().substring(1);
+        long fileLen = file.getLen();
+        // Blocks cover whole stripes, so a split never shares a stripe with the next one.
+        long blockSize = Math.max(stripeUnit, file.getBlockSize() / stripeUnit * stripeUnit);
+        List<BlockLocation> ret = new ArrayList<>();
+        for (long offset = 0; offset < fileLen; offset += blockSize) {
+            long length = Math.min(blockSize, fileLen - offset);
+            String[] hosts = rankHosts(key, offset, length);
+            String[] names = new String[hosts.length];
+            for (int i = 0; i < hosts.length; i++) {
+                names[i] = hosts[i] + NAME_SUFFIX;
+            }
+            ret.add(new BlockLocation(names, hosts, offset, length));
+        }
+        return ret.toArray(new BlockLocation[0]);
+    }
+
+    private String[] rankHosts(String key, long offset, long length) throws IOException {
+        Map<String, Long> bytesByHost = new LinkedHashMap<>();
+        long end = offset + length;
+        for (long stripe = offset / stripeUnit; stripe * stripeUnit < end; stripe++) {
+            long stripeBytes = Math.min(end, (stripe + 1) * stripeUnit) - Math.max(offset, stripe * stripeUnit);
+            for (String host : resolver.getHosts(bucket, key, stripe)) {
+                bytesByHost.merge(host, stripeBytes, Long::sum);
+            }
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(bytesByHost.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        String[] ret = new String[entries.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = entries.get(i).getKey();
+        }
+        return ret;
+    }
+}
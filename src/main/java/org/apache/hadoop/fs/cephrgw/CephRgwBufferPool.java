@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Size-classed buffer pool shared by the streams of a file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-classed pool of stream buffers with a hard cap on the memory it allocates.
+ * Sizes are rounded up to a power of two of at least {@link #MIN_CLASS_SIZE}. Idle buffers of other
+ * classes are dropped when a new buffer would exceed the cap, and callers wait for a release when
+ * every buffer is in use. {@link #trim} drops buffers that have been idle for too long, so the memory of a
+ * past burst goes back to the JVM.
+ */
+class CephRgwBufferPool {
+    static final int MIN_CLASS_SIZE = 64 * 1024;
+    static final int MAX_CLASS_SIZE = 1 << 30;
+    private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+
+    private final long maxSize;
+    private final boolean direct;
+    // Oldest first, buffers are reused from the tail so that the ones at the head age out.
+    private final ArrayDeque<IdleBuffer>[] idle;
+    private long allocatedBytes = 0;
+    private long usedBytes = 0;
+    private long waitCount = 0;
+    private long timeoutCount = 0;
+    private long trimmedBytes = 0;
+
+    /**
+     * Create a pool.
+     *
+     * @param maxSize the most bytes the pool may allocate, in use or idle
+     * @param direct whether buffers are allocated off-heap
+     */
+    @SuppressWarnings("unchecked")
+    CephRgwBufferPool(long maxSize, boolean direct) {
+        this.maxSize = maxSize;
+        this.direct = direct;
+        this.idle = (ArrayDeque<IdleBuffer>[]) new ArrayDeque<?>[classIndex(MAX_CLASS_SIZE) + 1];
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Borrow a cleared buffer with a capacity of at least size bytes and a limit of exactly size bytes.
+     *
+     * @param size the requested size
+     * @param waitMs how long to wait for memory to be released, 0 to fail at once
+     * @return the buffer, or null if the memory did not become available in time
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    synchronized ByteBuffer acquire(int size, long waitMs) throws InterruptedIOException {
+        if (size > MAX_CLASS_SIZE) {
+            return null;
+        }
+        int classIndex = classIndex(size);
+        int classSize = classSize(classIndex);
+        if (classSize > maxSize) {
+            return null;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMs);
+        boolean waited = false;
+        while (true) {
+            ByteBuffer ret = take(classIndex, size);
+            if (ret != null) {
+                return ret;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                if (waitMs > 0) {
+                    timeoutCount++;
+                }
+                return null;
+            }
+            if (!waited) {
+                waitCount++;
+                waited = true;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a buffer of " + size + " bytes.");
+            }
+        }
+    }
+
+    /**
+     * Borrow a buffer like {@link #acquire}, but fail at once if the memory is not available.
+     *
+     * @param size the requested size
+     * @return the buffer, or null
+     */
+    synchronized ByteBuffer tryAcquire(int size) {
+        if (size > MAX_CLASS_SIZE || classSize(classIndex(size)) > maxSize) {
+            return null;
+        }
+        return take(classIndex(size), size);
+    }
+
+    private ByteBuffer take(int classIndex, int size) {
+        int classSize = classSize(classIndex);
+        IdleBuffer idleBuffer = idle[classIndex].pollLast();
+        ByteBuffer ret = idleBuffer == null ? null : idleBuffer.buf;
+        if (ret == null && reserve(classSize)) {
+            ret = direct ? ByteBuffer.allocateDirect(classSize) : ByteBuffer.allocate(classSize);
+        }
+        if (ret != null) {
+            usedBytes += classSize;
+            ret.clear();
+            ret.limit(size);
+        }
+        return ret;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire} or {@link #tryAcquire}.
+     *
+     * @param buf the buffer, ignored if null
+     */
+    synchronized void release(ByteBuffer buf) {
+        if (buf == null) {
+            return;
+        }
+        int classIndex = classIndex(buf.capacity());
+        usedBytes -= buf.capacity();
+        buf.clear();
+        idle[classIndex].addLast(new IdleBuffer(buf, System.nanoTime()));
+        notifyAll();
+    }
+
+    /**
+     * Drop the idle buffers that have not been used for maxIdleMs.
+     *
+     * @param maxIdleMs how long a buffer may stay idle
+     * @return the bytes dropped
+     */
+    synchronized long trim(long maxIdleMs) {
+        long now = System.nanoTime();
+        long maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMs);
+        long ret = 0;
+        for (ArrayDeque<IdleBuffer> queue : idle) {
+            while (!queue.isEmpty() && now - queue.peekFirst().releasedNanos >= maxIdleNanos) {
+                ret += queue.pollFirst().buf.capacity();
+            }
+        }
+        allocatedBytes -= ret;
+        trimmedBytes += ret;
+        return ret;
+    }
+
+    private boolean reserve(int classSize) {
+        if (allocatedBytes + classSize <= maxSize) {
+            allocatedBytes += classSize;
+            return true;
+        }
+        // Drop idle buffers of any class, largest first, until the new one fits.
+        for (int i = idle.length - 1; i >= 0 && allocatedBytes + classSize > maxSize; i--) {
+            while (!idle[i].isEmpty() && allocatedBytes + classSize > maxSize) {
+                allocatedBytes -= idle[i].pollFirst().buf.capacity();
+            }
+        }
+        if (allocatedBytes + classSize <= maxSize) {
+            allocatedBytes += classSize;
+            return true;
+        }
+        return false;
+    }
+
+    private static int classIndex(int size) {
+        int rounded = Math.max(size, MIN_CLASS_SIZE);
+        return Integer.SIZE - Integer.numberOfLeadingZeros(rounded - 1) - MIN_CLASS_SHIFT;
+    }
+
+    private static int classSize(int classIndex) {
+        return 1 << (classIndex + MIN_CLASS_SHIFT);
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * get the bytes allocated by the pool, in use or idle
+     *
+     * @return the allocated bytes
+     */
+    synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * get the bytes lent to streams
+     *
+     * @return the used bytes
+     */
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * get the number of acquisitions that had to wait for memory
+     *
+     * @return the wait count
+     */
+    synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * get the number of acquisitions that gave up waiting for memory
+     *
+     * @return the timeout count
+     */
+    synchronized long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * get the idle bytes dropped by {@link #trim}
+     *
+     * @return the trimmed bytes
+     */
+    synchronized long getTrimmedBytes() {
+        return trimmedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "CephRgwBufferPool{max=%d, allocated=%d, used=%d, waits=%d, timeouts=%d}",
+                maxSize, allocatedBytes, usedBytes, waitCount, timeoutCount);
+    }
+
+    private static final class IdleBuffer {
+        private final ByteBuffer buf;
+        private final long releasedNanos;
+
+        IdleBuffer(ByteBuffer buf, long releasedNanos) {
+            this.buf = buf;
+            this.releasedNanos = releasedNanos;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Server-side copy of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.transfer.Copy;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Copies files and directory trees inside one bucket with S3 copy requests, so RGW copies the data
+ * and nothing passes through the client.
+ * Every directory is handled by one task on a work-stealing pool: it creates the matching target
+ * directory, forks a copy task per file and a task per subdirectory.
+ */
+class CephRgwCopyEngine {
+    private final CephRgwFileSystem fileSystem;
+    private final ForkJoinPool pool;
+    private final TransferManager transfers;
+    private final String bucket;
+
+    CephRgwCopyEngine(CephRgwFileSystem fileSystem, ForkJoinPool pool, TransferManager transfers, String bucket) {
+        this.fileSystem = fileSystem;
+        this.pool = pool;
+        this.transfers = transfers;
+        this.bucket = bucket;
+    }
+
+    /**
+     * Copy a file or a directory tree to a target whose parent exists.
+     *
+     * @param src the absolute source
+     * @param srcStatus the status of the source
+     * @param dst the absolute target
+     * @throws IOException failure
+     */
+    void copy(Path src, FileStatus srcStatus, Path dst) throws IOException {
+        if (srcStatus.isFile()) {
+            copyFile(src, dst);
+            return;
+        }
+        fileSystem.mkdirs(dst);
+        try {
+            pool.invoke(new DirTask(src, dst));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void copyFile(Path src, Path dst) throws IOException {
+        CopyObjectRequest request = new CopyObjectRequest(bucket, toKey(src), bucket, toKey(dst));
+        try {
+            Copy copy = transfers.copy(request);
+            copy.waitForCopyResult();
+        } catch (AmazonClientException e) {
+            throw new IOException(String.format(Locale.ROOT, "copy %s to %s failed.", src, dst), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format(Locale.ROOT, "copy %s to %s interrupted.", src, dst));
+        }
+        fileSystem.invalidateMetadata(dst);
+    }
+
+    private static String toKey(Path path) {
+        return path.toUri().getPath().substring(1);
+    }
+
+    private class DirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path src;
+        private final Path dst;
+
+        DirTask(Path src, Path dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                List<RecursiveAction> tasks = new ArrayList<>();
+                try (CephRgwDirectoryLister iter = fileSystem.listDirectory(src)) {
+                    while (iter.hasNext()) {
+                        FileStatus entry = iter.next();
+                        Path target = new Path(dst, entry.getPath().getName());
+                        if (entry.isDirectory()) {
+                            fileSystem.mkdirs(target);
+                            tasks.add(new DirTask(entry.getPath(), target));
+                        } else {
+                            tasks.add(new FileTask(entry.getPath(), target));
+                        }
+                    }
+                }
+                invokeAll(tasks);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private class FileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path src;
+        private final Path dst;
+
+        FileTask(Path src, Path dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                copyFile(src, dst);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
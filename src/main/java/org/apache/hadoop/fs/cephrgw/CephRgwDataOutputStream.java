@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: The output stream returned by create, with ByteBuffer writes.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The stream returned by create. Besides the usual byte array writes it takes ByteBuffer writes, which
+ * hand a direct buffer to librgw without a copy, and keeps getPos in step with both.
+ */
+public class CephRgwDataOutputStream extends FSDataOutputStream {
+    private final CephRgwWriteBehindOutputStream out;
+    private long byteBufferBytes = 0;
+
+    CephRgwDataOutputStream(CephRgwWriteBehindOutputStream out, FileSystem.Statistics stats) {
+        super(out, stats);
+        this.out = out;
+    }
+
+    /**
+     * Write the remaining bytes of a buffer and advance its position.
+     *
+     * @param src the data to write
+     * @throws IOException failure
+     */
+    public synchronized void write(ByteBuffer src) throws IOException {
+        int len = src.remaining();
+        out.write(src);
+        byteBufferBytes += len;
+    }
+
+    @Override
+    public long getPos() {
+        synchronized (this) {
+            return super.getPos() + byteBufferBytes;
+        }
+    }
+}
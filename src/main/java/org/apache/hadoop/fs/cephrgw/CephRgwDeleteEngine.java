@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Parallel recursive delete of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes the contents of a directory tree with concurrent tasks on a work-stealing pool.
+ * Every directory is listed by one task, which forks a task per subdirectory and per file to unlink.
+ * A directory counts its unfinished children and is unlinked from its parent by whichever task
+ * finishes its last child, so the tree is removed bottom-up while the listing is still running.
+ * After a failure no more objects are unlinked, the tasks already started drain and the first
+ * failure is thrown.
+ */
+class CephRgwDeleteEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CephRgwDeleteEngine.class);
+    private static final long PROGRESS_STEP = 10000;
+
+    private final CephRgwFileSystem fileSystem;
+    private final ForkJoinPool pool;
+    private final AtomicLong filesDeleted = new AtomicLong();
+    private final AtomicLong dirsDeleted = new AtomicLong();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile IOException failure;
+
+    CephRgwDeleteEngine(CephRgwFileSystem fileSystem, ForkJoinPool pool) {
+        this.fileSystem = fileSystem;
+        this.pool = pool;
+    }
+
+    /**
+     * Delete everything below a directory, the directory itself is left to the caller.
+     *
+     * @param dirPath the absolute directory path
+     * @throws IOException the first failure
+     */
+    void deleteContents(Path dirPath) throws IOException {
+        long start = System.currentTimeMillis();
+        pool.execute(new ListTask(new DirNode(dirPath, null)));
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            fail(new InterruptedIOException("Interrupted while deleting " + dirPath));
+            Thread.currentThread().interrupt();
+            throw failure;
+        } catch (ExecutionException e) {
+            throw new IOException("Delete " + dirPath + " failed.", e.getCause());
+        }
+        LOGGER.debug("Deleted {} files and {} directories under {} in {} ms.", filesDeleted.get(), dirsDeleted.get(),
+                dirPath, System.currentTimeMillis() - start);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void unlink(LibRGWFH parentFh, Path path) throws IOException {
+        try {
+            long start = System.nanoTime();
+            try {
+                fileSystem.rgwUnlink(parentFh.getFsPtr(), parentFh.getFhPtr(), path.getName());
+            } finally {
+                fileSystem.getNativeStatistics().record(CephRgwStorageStatistics.Op.UNLINK, start);
+            }
+        } catch (CephRgwException e) {
+            if (e.getErrcode() == CephRgwFileSystem.ERR_NOT_EXISTS) {
+                return;
+            }
+            if (e.getErrcode() == CephRgwFileSystem.ERR_DIR_NOT_EMPTY) {
+                throw new DirectoryNotEmptyException(path.toUri().getPath());
+            }
+            throw new IOException(String.format(Locale.ROOT, "delete path %s failed.", path), e);
+        }
+        long total = filesDeleted.get() + dirsDeleted.get() + 1;
+        if (total % PROGRESS_STEP == 0) {
+            LOGGER.info("Deleted {} objects so far.", total);
+        }
+    }
+
+    /**
+     * A directory being deleted. It holds its handle until all its children are gone.
+     */
+    private class DirNode {
+        private final Path path;
+        private final DirNode parent;
+        // The children not deleted yet, plus one while the directory is being listed.
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private LibRGWFH fileHandle;
+
+        DirNode(Path path, DirNode parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+
+        void childDone() {
+            if (pending.decrementAndGet() != 0) {
+                return;
+            }
+            if (fileHandle != null) {
+                fileHandle.close();
+            }
+            if (parent == null) {
+                done.complete(null);
+                return;
+            }
+            try {
+                if (failure == null) {
+                    unlink(parent.fileHandle, path);
+                    dirsDeleted.incrementAndGet();
+                    fileSystem.countDeleted(true);
+                }
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                parent.childDone();
+            }
+        }
+    }
+
+    private class ListTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final DirNode dir;
+
+        ListTask(DirNode dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (failure != null) {
+                    return;
+                }
+                dir.fileHandle = fileSystem.getFileHandleByAbsPath(dir.path, CephRgwFileSystem.LOOKUP_FLAG_NONE,
+                        true, false);
+                try (CephRgwDirectoryLister iter = fileSystem.listDirectory(dir.path, dir.fileHandle)) {
+                    while (failure == null && iter.hasNext()) {
+                        FileStatus status = iter.next();
+                        dir.pending.incrementAndGet();
+                        if (status.isDirectory()) {
+                            new ListTask(new DirNode(status.getPath(), dir)).fork();
+                        } else {
+                            new UnlinkTask(dir, status.getPath()).fork();
+                        }
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                // Deleted by someone else in the meantime.
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException("Delete " + dir.path + " failed.", e));
+            } finally {
+                dir.childDone();
+            }
+        }
+    }
+
+    private class UnlinkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final DirNode dir;
+        private final Path path;
+
+        UnlinkTask(DirNode dir, Path path) {
+            this.dir = dir;
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (failure == null) {
+                    unlink(dir.fileHandle, path);
+                    filesDeleted.incrementAndGet();
+                    fileSystem.countDeleted(false);
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException("Delete " + path + " failed.", e));
+            } finally {
+                dir.childDone();
+            }
+        }
+    }
+}
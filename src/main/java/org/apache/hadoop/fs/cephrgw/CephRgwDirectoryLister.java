@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Paged directory listing of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over a directory that fetches the entries page by page with rgwReaddirBatch.
+ * Each page is decoded from one direct buffer that is borrowed from the list page pool of the file system
+ * and reused for the whole listing, and the readdir offset cookie carries the position from one page to
+ * the next. The directory handle is released once the last page is fetched or the listing fails, the
+ * page once its last entry is read, and both when a caller that stops early closes the lister.
+ */
+class CephRgwDirectoryLister implements RemoteIterator<FileStatus>, Closeable {
+    private final CephRgwFileSystem fileSystem;
+    private final Path dirPath;
+    private ByteBuffer batch;
+    private boolean pooled;
+    private final long[] cookie = new long[2];
+    private LibRGWFH fileHandle;
+    private int remaining;
+    private byte[] nameBytes = new byte[256];
+
+    /**
+     * Start listing a directory.
+     *
+     * @param fileSystem the owner file system
+     * @param dirPath the absolute directory path
+     * @param fileHandle the directory handle, released by the lister
+     * @param batchSize the size of the page buffer
+     */
+    CephRgwDirectoryLister(CephRgwFileSystem fileSystem, Path dirPath, LibRGWFH fileHandle, int batchSize) {
+        this.fileSystem = fileSystem;
+        this.dirPath = dirPath;
+        this.fileHandle = fileHandle;
+        this.batch = fileSystem.getListPagePool().tryAcquire(batchSize);
+        this.pooled = batch != null;
+        if (!pooled) {
+            // The pool is exhausted by other listings, this one pays for its own page.
+            this.batch = ByteBuffer.allocateDirect(batchSize);
+        }
+        this.batch.order(ByteOrder.nativeOrder());
+        this.batch.limit(0);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (remaining > 0) {
+            return true;
+        }
+        if (fileHandle == null) {
+            releasePage();
+            return false;
+        }
+        fetch();
+        if (remaining == 0) {
+            releasePage();
+        }
+        return remaining > 0;
+    }
+
+    @Override
+    public FileStatus next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more entries in " + dirPath);
+        }
+        remaining--;
+        int nameLen = batch.getInt();
+        if (nameBytes.length < nameLen) {
+            nameBytes = new byte[nameLen];
+        }
+        batch.get(nameBytes, 0, nameLen);
+        String name = new String(nameBytes, 0, nameLen, StandardCharsets.UTF_8);
+        long length = batch.getLong();
+        long modifyTime = batch.getLong();
+        long accessTime = batch.getLong();
+        int mode = batch.getInt();
+        FileStatus status = fileSystem.newFileStatus(length, modifyTime, accessTime, mode,
+                new Path(dirPath, new Path(name)));
+        fileSystem.cacheFileStatus(status);
+        return status;
+    }
+
+    private void fetch() throws IOException {
+        try {
+            batch.clear();
+            long start = System.nanoTime();
+            try {
+                remaining = fileSystem.rgwReaddirBatch(fileHandle.getFsPtr(), fileHandle.getFhPtr(), cookie, batch);
+            } finally {
+                fileSystem.getNativeStatistics().record(CephRgwStorageStatistics.Op.READDIR, start);
+            }
+        } catch (CephRgwException e) {
+            close();
+            throw new IOException(String.format(Locale.ROOT, "list directory %s failed.", dirPath), e);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        if (cookie[1] != 0) {
+            releaseHandle();
+        }
+    }
+
+    @Override
+    public void close() {
+        remaining = 0;
+        releaseHandle();
+        releasePage();
+    }
+
+    private void releaseHandle() {
+        if (fileHandle != null) {
+            fileHandle.close();
+            fileHandle = null;
+        }
+    }
+
+    private void releasePage() {
+        if (pooled) {
+            pooled = false;
+            fileSystem.getListPagePool().release(batch);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: A parallel walk over a directory tree.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists a directory tree with one task per directory on a work-stealing pool and hands every entry to
+ * a visitor. Subdirectories are forked as new tasks, so idle workers steal them and the walk is bounded
+ * by the parallelism of the pool. The visitor is called concurrently from the pool threads.
+ *
+ * A subdirectory that disappears during the walk is skipped, the root is not: its FileNotFoundException
+ * fails the walk like any other failure. The first failure, or a stop, ends the listing and the visitor
+ * hears about it once all the tasks are done.
+ */
+class CephRgwDirectoryWalk {
+    /**
+     * Receives the entries of a walk.
+     */
+    interface Visitor {
+        /**
+         * Called for a subdirectory, before it is listed.
+         *
+         * @param status the directory
+         * @throws IOException failure, it stops the walk
+         */
+        void visitDirectory(FileStatus status) throws IOException;
+
+        /**
+         * Called for a file.
+         *
+         * @param status the file
+         * @return false to stop the walk
+         * @throws IOException failure, it stops the walk
+         */
+        boolean visitFile(FileStatus status) throws IOException;
+
+        /**
+         * Called once when the last task is done.
+         *
+         * @param failure the first failure, or null if the walk completed or was stopped
+         */
+        void finished(IOException failure);
+    }
+
+    private final CephRgwFileSystem fileSystem;
+    private final ForkJoinPool pool;
+    private final Visitor visitor;
+    private final AtomicInteger pendingDirs = new AtomicInteger(1);
+    private volatile boolean stopped;
+    private volatile IOException failure;
+
+    CephRgwDirectoryWalk(CephRgwFileSystem fileSystem, ForkJoinPool pool, Visitor visitor) {
+        this.fileSystem = fileSystem;
+        this.pool = pool;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Start listing, the visitor is called from the pool.
+     *
+     * @param dirPath the absolute path of the root directory
+     */
+    void start(Path dirPath) {
+        pool.execute(new ListTask(dirPath, true));
+    }
+
+    /**
+     * Stop listing, the tasks already running finish their current entry.
+     *
+     * @param e the failure to report, or null
+     */
+    synchronized void stop(IOException e) {
+        if (!stopped) {
+            failure = e;
+            stopped = true;
+        }
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    private class ListTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path dirPath;
+        private final boolean root;
+
+        ListTask(Path dirPath, boolean root) {
+            this.dirPath = dirPath;
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            try (CephRgwDirectoryLister iter = fileSystem.listDirectory(dirPath)) {
+                while (!stopped && iter.hasNext()) {
+                    FileStatus status = iter.next();
+                    if (status.isDirectory()) {
+                        visitor.visitDirectory(status);
+                        pendingDirs.incrementAndGet();
+                        new ListTask(status.getPath(), false).fork();
+                    } else if (!visitor.visitFile(status)) {
+                        stop(null);
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                if (root) {
+                    stop(e);
+                }
+            } catch (IOException e) {
+                stop(e);
+            } catch (RuntimeException e) {
+                stop(new IOException("List " + dirPath + " failed.", e));
+            } finally {
+                if (pendingDirs.decrementAndGet() == 0) {
+                    visitor.finished(failure);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: File handle cache of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded LRU cache of open file handles by absolute path.
+ * The keys are spread over lock stripes, each stripe is an LRU of its own. The cache holds one
+ * reference of every handle in it, a handle is closed when it has been evicted and its last user
+ * has released it.
+ */
+class CephRgwFileHandleCache {
+    private final Stripe[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder contentions = new LongAdder();
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize the most handles to keep, 0 disables the cache
+     * @param stripeCount the number of lock stripes, rounded up to a power of two
+     */
+    CephRgwFileHandleCache(int maxSize, int stripeCount) {
+        int count = 1;
+        while (count < stripeCount && count < maxSize) {
+            count <<= 1;
+        }
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(maxSize <= 0 ? 0 : (maxSize + count - 1) / count);
+        }
+    }
+
+    /**
+     * Get a cached handle.
+     *
+     * @param key the absolute path
+     * @return the handle with a reference taken for the caller, null on a miss
+     */
+    LibRGWFH get(String key) {
+        Stripe stripe = stripeOf(key);
+        if (stripe.capacity == 0) {
+            return null;
+        }
+        lock(stripe);
+        try {
+            LibRGWFH handle = stripe.handles.get(key);
+            if (handle == null) {
+                misses.increment();
+                return null;
+            }
+            handle.retain();
+            hits.increment();
+            return handle;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Check for a cached handle without taking a reference.
+     *
+     * @param key the absolute path
+     * @return whether the path has a handle in the cache
+     */
+    boolean contains(String key) {
+        Stripe stripe = stripeOf(key);
+        lock(stripe);
+        try {
+            return stripe.handles.containsKey(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Add a handle. If another thread cached the same path first, the caller's handle is released and
+     * the cached one is returned instead.
+     *
+     * @param key the absolute path
+     * @param handle a handle the caller holds a reference of
+     * @return the handle to use, the caller holds a reference of it
+     */
+    LibRGWFH put(String key, LibRGWFH handle) {
+        Stripe stripe = stripeOf(key);
+        if (stripe.capacity == 0) {
+            return handle;
+        }
+        List<LibRGWFH> evicted = new ArrayList<>();
+        LibRGWFH existing;
+        lock(stripe);
+        try {
+            existing = stripe.handles.get(key);
+            if (existing != null) {
+                existing.retain();
+            } else {
+                handle.retainCached();
+                stripe.handles.put(key, handle);
+                Iterator<LibRGWFH> iter = stripe.handles.values().iterator();
+                while (stripe.handles.size() > stripe.capacity && iter.hasNext()) {
+                    evicted.add(iter.next());
+                    iter.remove();
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        evictions.add(evicted.size());
+        releaseAll(evicted);
+        if (existing != null) {
+            handle.close();
+            return existing;
+        }
+        return handle;
+    }
+
+    /**
+     * Drop the handle of a path.
+     *
+     * @param key the absolute path
+     */
+    void invalidate(String key) {
+        Stripe stripe = stripeOf(key);
+        LibRGWFH removed;
+        lock(stripe);
+        try {
+            removed = stripe.handles.remove(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (removed != null) {
+            removed.releaseCached();
+        }
+    }
+
+    /**
+     * Drop the handles of a path and of everything below it.
+     *
+     * @param key the absolute path
+     */
+    void invalidateTree(String key) {
+        String prefix = key.endsWith("/") ? key : key + "/";
+        List<LibRGWFH> removed = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            lock(stripe);
+            try {
+                Iterator<Map.Entry<String, LibRGWFH>> iter = stripe.handles.entrySet().iterator();
+                while (iter.hasNext()) {
+                    Map.Entry<String, LibRGWFH> next = iter.next();
+                    if (next.getKey().equals(key) || next.getKey().startsWith(prefix)) {
+                        removed.add(next.getValue());
+                        iter.remove();
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        releaseAll(removed);
+    }
+
+    /**
+     * Drop every handle, called when the file system is closed.
+     */
+    void clear() {
+        List<LibRGWFH> removed = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            lock(stripe);
+            try {
+                removed.addAll(stripe.handles.values());
+                stripe.handles.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        releaseAll(removed);
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * get how often a thread found its stripe locked by another one
+     *
+     * @return the contention count
+     */
+    long getContentionCount() {
+        return contentions.sum();
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            lock(stripe);
+            try {
+                size += stripe.handles.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "CephRgwFileHandleCache{stripes=" + stripes.length + ", size=" + size() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount()
+                + ", contentions=" + getContentionCount() + "}";
+    }
+
+    private Stripe stripeOf(String key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private void lock(Stripe stripe) {
+        if (!stripe.lock.tryLock()) {
+            contentions.increment();
+            stripe.lock.lock();
+        }
+    }
+
+    private static void releaseAll(List<LibRGWFH> handles) {
+        for (LibRGWFH handle : handles) {
+            handle.releaseCached();
+        }
+    }
+
+    private static class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int capacity;
+        private final LinkedHashMap<String, LibRGWFH> handles = new LinkedHashMap<>(16, 0.75f, true);
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: A byte range of a file requested through a vectored read.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A byte range of a file requested through {@link CephRgwInputStream#readVectored}.
+ * The data future completes with a buffer positioned at the first byte of the range.
+ */
+public class CephRgwFileRange {
+    private final long offset;
+    private final int length;
+    private final CompletableFuture<ByteBuffer> data = new CompletableFuture<>();
+
+    public CephRgwFileRange(long offset, int length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range offset:" + offset + ", length:" + length);
+        }
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public CompletableFuture<ByteBuffer> getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "range[" + offset + "," + (offset + length) + ")";
+    }
+}
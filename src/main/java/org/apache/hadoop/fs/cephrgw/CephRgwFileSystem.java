@@ -5,6 +5,9 @@
 package org.apache.hadoop.fs.cephrgw;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import org.apache.commons.io.FileExistsException;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -14,21 +17,44 @@ import org.apache.hadoop.fs.permission.FsPermission;
 import static org.apache.hadoop.fs.s3a.S3AUtils.createAWSCredentialProviderSet;
 
 import org.apache.hadoop.fs.s3a.AWSCredentialProviderList;
+import org.apache.hadoop.fs.s3a.Constants;
+import org.apache.hadoop.fs.s3a.S3ClientFactory;
 import org.apache.hadoop.fs.s3a.S3AFileSystem;
 import org.apache.hadoop.fs.s3a.S3AUtils;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.file.DirectoryNotEmptyException;
 import java.util.EnumSet;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * The core librgw Filesystem implementation.
@@ -47,7 +73,11 @@ public class CephRgwFileSystem extends FileSystem {
 
     static final String CONST_USER = "root";
     static final String CONST_GROUP = "root";
+    static final int ERR_NOT_PERMITTED = -1;
     static final int ERR_NOT_EXISTS = -2;
+    static final int ERR_CROSS_DEVICE = -18;
+    static final int ERR_NOT_DIR = -20;
+    static final int ERR_NOT_SUPPORTED = -95;
     static final int ERR_EXISTS = -17;
     static final int ERR_DIR_NOT_EMPTY = -39;
     static final int FLAG_DIR = 0040000;
@@ -56,15 +86,55 @@ public class CephRgwFileSystem extends FileSystem {
     static final int LOOKUP_FLAG_RCB = 2;
     static final int LOOKUP_FLAG_DIR = 4;
     static final int LOOKUP_FLAG_FILE = 8;
+    static final int LOOKUP_STAT_FIELDS = 4;
     static final byte[] EMPTY_BYTE_TMP = new byte[1];
-    static final LinkedHashMap<String, LibRGWFH> FH_CACHE_MAP = new LinkedHashMap<>();
     private static final Logger LOGGER = LoggerFactory.getLogger(CephRgwFileSystem.class);
+    private static final AtomicInteger METRICS_SOURCE_ID = new AtomicInteger();
+    private static final AtomicInteger MOUNT_SLOTS = new AtomicInteger();
+    private static final ThreadLocal<Integer> MOUNT_SLOT = ThreadLocal.withInitial(MOUNT_SLOTS::getAndIncrement);
+    private static final String NATIVE_OPTION_PREFIX = "fs.ceph.rgw.native.";
+    private static final long LIST_SHUTDOWN_WAIT_SECONDS = 30;
+    // The librgw instance is shared by the process and takes its options once, guarded by the class lock.
+    private static List<String> nativeArgs;
+    private static Map<String, String> nativeOptions;
     private long virtualBlockSize;
     private boolean ensureReadonly = false;
-    private int maxInputStreamCacheSize;
+    private long maxInputStreamCacheSize;
     private int cephRgwBufferSize;
-    private long librgwFsPtr = 0;
-    private LibRGWFH rootFH;
+    private int readAheadDepth;
+    private int readAheadBlockSize;
+    private int ioThreads;
+    private long parallelReadThreshold;
+    private int parallelReadParallelism;
+    private long parallelReadAlignment;
+    private long vectoredReadMinSeek;
+    private long vectoredReadMaxMerged;
+    private int writeBehindBuffers;
+    private int writeBehindThreads;
+    private CephRgwBufferPool bufferPool;
+    private CephRgwBufferPool writeBufferPool;
+    private CephRgwBufferPool listPagePool;
+    private long bufferPoolWaitMs;
+    private long bufferIdleMs;
+    // Input streams that hold pool memory, so that the sweeper can take it back from idle or abandoned ones.
+    private final Set<CephRgwInputStream> bufferedStreams = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService bufferSweeper;
+    private volatile ExecutorService ioExecutor;
+    private volatile ExecutorService writeExecutor;
+    private int listParallelism;
+    private int listQueueSize;
+    private final Set<CephRgwTreeWalker> activeWalkers = ConcurrentHashMap.newKeySet();
+    private final LongAdder filesDeleted = new LongAdder();
+    private final LongAdder directoriesDeleted = new LongAdder();
+    private volatile ForkJoinPool listExecutor;
+    private volatile TransferManager copyTransfers;
+    private CephRgwMetadataCache metadataCache;
+    private int listBatchSize;
+    private CephRgwBlockLocator blockLocator;
+    private CephRgwStorageStatistics nativeStatistics;
+    private String metricsSourceName;
+    private CephRgwMount[] mounts = new CephRgwMount[0];
+    private boolean stripeMountsByThread;
     private URI rootBucketPath;
     private Path rootDirectory = null;
     private S3AFileSystem s3aFileSystemTmp;
@@ -118,34 +188,219 @@ public class CephRgwFileSystem extends FileSystem {
         }
         setWorkingDirectory(new Path("/"));
         cephRgwBufferSize = conf.getInt("fs.ceph.rgw.io.buffer.size", 1024 * 1024 * 4);
-        maxInputStreamCacheSize = conf.getInt("fs.ceph.rgw.max.inputstream.cache.size", 1024 * 64);
+        // Hard cap, in bytes, on the memory of the stream buffer pool.
+        maxInputStreamCacheSize = conf.getLongBytes("fs.ceph.rgw.max.inputstream.cache.size", 1024L * 1024 * 1024);
+        readAheadDepth = conf.getInt("fs.ceph.rgw.readahead.depth", 0);
+        readAheadBlockSize = conf.getInt("fs.ceph.rgw.readahead.block.size", cephRgwBufferSize);
+        ioThreads = conf.getInt("fs.ceph.rgw.io.threads", 16);
+        listParallelism = conf.getInt("fs.ceph.rgw.list.parallelism", 8);
+        listQueueSize = conf.getInt("fs.ceph.rgw.list.queue.size", 10000);
+        parallelReadThreshold = conf.getLongBytes("fs.ceph.rgw.parallel.read.threshold", 8 * 1024 * 1024);
+        parallelReadParallelism = conf.getInt("fs.ceph.rgw.parallel.read.parallelism", 4);
+        parallelReadAlignment = conf.getLongBytes("fs.ceph.rgw.parallel.read.alignment", 4 * 1024 * 1024);
+        vectoredReadMinSeek = conf.getLongBytes("fs.ceph.rgw.vectored.read.min.seek.size", 4 * 1024);
+        vectoredReadMaxMerged = conf.getLongBytes("fs.ceph.rgw.vectored.read.max.merged.size", 1024 * 1024);
+        writeBehindBuffers = conf.getInt("fs.ceph.rgw.write.behind.buffers", 2);
+        writeBehindThreads = conf.getInt("fs.ceph.rgw.write.behind.threads", ioThreads);
+        boolean directBuffers = conf.getBoolean("fs.ceph.rgw.buffer.pool.direct", false);
+        bufferPool = new CephRgwBufferPool(maxInputStreamCacheSize, directBuffers);
+        // Writers have a pool of their own, so that a burst of uploads cannot starve the readers and back.
+        writeBufferPool = new CephRgwBufferPool(
+                conf.getLongBytes("fs.ceph.rgw.write.behind.memory.limit", 256L * 1024 * 1024), directBuffers);
+        bufferPoolWaitMs = conf.getLong("fs.ceph.rgw.buffer.pool.wait.ms", 1000);
+        // Streams idle this long give their buffers back, and pooled buffers idle this long are dropped. 0 keeps them.
+        bufferIdleMs = conf.getLong("fs.ceph.rgw.buffer.pool.idle.ms", 60000);
+        if (bufferIdleMs > 0) {
+            ScheduledThreadPoolExecutor sweeper = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "cephrgw-buffer-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1, bufferIdleMs / 2);
+            sweeper.scheduleWithFixedDelay(this::sweepBuffers, period, period, TimeUnit.MILLISECONDS);
+            bufferSweeper = sweeper;
+        }
+        // The FileStatus cache is off by default, a ttl above 0 turns it on. open, create without overwrite,
+        // delete and rename then decide on a status up to ttl old, so changes made by other clients of the
+        // bucket may go unseen for that long. Negative entries also hide a path created elsewhere, which breaks
+        // jobs that poll for a marker file. Only turn them on when this file system is the only writer.
+        metadataCache = new CephRgwMetadataCache(conf.getInt("fs.ceph.rgw.metadata.cache.size", 10000),
+                conf.getLong("fs.ceph.rgw.metadata.cache.ttl", 0),
+                conf.getBoolean("fs.ceph.rgw.metadata.cache.negative", false));
+        // An object name is at most 1024 bytes, so a page always has room for one entry.
+        listBatchSize = (int) Math.max(conf.getLongBytes("fs.ceph.rgw.list.batch.size", 64 * 1024), 4096);
+        // readdir pages go to native code, so they are always direct, listings beyond the cap allocate their own.
+        listPagePool = new CephRgwBufferPool(conf.getLongBytes("fs.ceph.rgw.list.page.pool.size", 16 * 1024 * 1024),
+                true);
+        Class<? extends CephRgwPlacementResolver> resolverClass = conf.getClass(
+                "fs.ceph.rgw.placement.resolver.impl", null, CephRgwPlacementResolver.class);
+        if (resolverClass != null) {
+            // Virtual blocks, and so the splits, are whole multiples of the striping unit.
+            long stripeUnit = conf.getLongBytes("fs.ceph.rgw.placement.stripe.unit", 4 * 1024 * 1024);
+            virtualBlockSize = Math.max(1, (virtualBlockSize + stripeUnit - 1) / stripeUnit) * stripeUnit;
+            CephRgwPlacementResolver resolver = ReflectionUtils.newInstance(resolverClass, conf);
+            resolver.initialize(name, conf);
+            blockLocator = new CephRgwBlockLocator(resolver, name.getAuthority(), stripeUnit,
+                    conf.getInt("fs.ceph.rgw.placement.cache.size", 10000));
+        }
+
+        nativeStatistics = new CephRgwStorageStatistics(rootBucketPath.toString(), createLibrgw(conf));
+        registerBufferPoolStatistics("buffer_pool", "buffer pool", bufferPool);
+        registerBufferPoolStatistics("write_buffer_pool", "write buffer pool", writeBufferPool);
+        registerBufferPoolStatistics("list_page_pool", "list page pool", listPagePool);
+        // Recursive deletes count every object as it goes, so a long delete shows its progress here.
+        nativeStatistics.register("files_deleted", "files deleted", true, filesDeleted::sum);
+        nativeStatistics.register("directories_deleted", "directories deleted", true, directoriesDeleted::sum);
+        if (conf.getBoolean("fs.ceph.rgw.metrics.enabled", false)) {
+            metricsSourceName = "CephRgwFileSystem-" + name.getAuthority() + "-" + METRICS_SOURCE_ID.incrementAndGet();
+            DefaultMetricsSystem.instance().register(metricsSourceName, "librgw calls of " + rootBucketPath,
+                    nativeStatistics);
+        }
 
         String userId = conf.get("fs.ceph.rgw.userid", "");
         credentials = createAWSCredentialProviderSet(name, conf);
         String accessKey = credentials.getCredentials().getAWSAccessKeyId();
         String secretKey = credentials.getCredentials().getAWSSecretKey();
+        // Every mount has its own locks and handle cache inside librgw, operations are spread over them
+        // by the hash of the parent directory, so that siblings share the cached directory handle, or by thread.
+        stripeMountsByThread = "thread".equalsIgnoreCase(conf.getTrimmed("fs.ceph.rgw.mounts.striping", "path"));
+        mounts = new CephRgwMount[Math.max(1, conf.getInt("fs.ceph.rgw.mounts", 1))];
+        int handleCacheStripes = conf.getInt("fs.ceph.rgw.fh.cache.stripes", 16);
+        registerHandleCacheStatistics("fh_cache", "file handle cache", CephRgwMount::getHandleCache);
+        registerHandleCacheStatistics("dir_cache", "directory handle cache", CephRgwMount::getDirHandleCache);
         try {
-            librgwFsPtr = rgwMount(userId, accessKey, secretKey);
-            long currFh =
-                    rgwLookup(librgwFsPtr, getRootFH(librgwFsPtr), internalName.getAuthority(), 0, 0, LOOKUP_FLAG_DIR);
-            rgwGetattr(
-                    librgwFsPtr,
-                    currFh,
-                    new AbstractFileHandlerReceiver(this) {
-                        @Override
-                        void receiveFileHandler(String name, long statPtr, int mask, FileStatus fileStatus)
-                                throws IOException {
-                            fileStatus.setPath(getWorkingDirectory());
-                            rootFH = new LibRGWFH(CephRgwFileSystem.this, currFh, fileStatus, false);
-                        }
-                    });
-
+            for (int i = 0; i < mounts.length; i++) {
+                // Handles are only cached when fs.ceph.rgw.ensure-readonly promises that files do not change.
+                CephRgwFileHandleCache handleCache = new CephRgwFileHandleCache(
+                        conf.getInt("fs.ceph.rgw.fh.cache.size", 1024), handleCacheStripes);
+                CephRgwFileHandleCache dirHandleCache = new CephRgwFileHandleCache(
+                        conf.getInt("fs.ceph.rgw.dir.cache.size", 4096), handleCacheStripes);
+                mounts[i] = new CephRgwMount(this, i, rgwMount(userId, accessKey, secretKey), handleCache,
+                        dirHandleCache);
+                mountBucket(mounts[i], internalName.getAuthority());
+            }
         } catch (CephRgwException e) {
             close();
             throw new IOException("Mount failed.", e);
         }
     }
 
+    /**
+     * Publish the usage of one buffer pool.
+     *
+     * @param prefix the statistic key prefix
+     * @param description the pool in metrics2 descriptions
+     * @param pool the pool
+     */
+    private void registerBufferPoolStatistics(String prefix, String description, CephRgwBufferPool pool) {
+        nativeStatistics.register(prefix + "_allocated_bytes", "bytes allocated by the " + description, false,
+                pool::getAllocatedBytes);
+        nativeStatistics.register(prefix + "_used_bytes", description + " bytes lent to streams", false,
+                pool::getUsedBytes);
+        nativeStatistics.register(prefix + "_waits", description + " acquisitions that waited for memory", true,
+                pool::getWaitCount);
+        nativeStatistics.register(prefix + "_timeouts", description + " acquisitions that gave up waiting", true,
+                pool::getTimeoutCount);
+        nativeStatistics.register(prefix + "_trimmed_bytes", "idle bytes dropped by the " + description, true,
+                pool::getTrimmedBytes);
+    }
+
+    /**
+     * Publish the counters of one handle cache, summed over the mounts.
+     *
+     * @param prefix the statistic key prefix
+     * @param description the cache in metrics2 descriptions
+     * @param cache picks the cache of a mount
+     */
+    private void registerHandleCacheStatistics(String prefix, String description,
+            Function<CephRgwMount, CephRgwFileHandleCache> cache) {
+        nativeStatistics.register(prefix + "_hits", description + " hits", true,
+                () -> sumOverMounts(mount -> cache.apply(mount).getHitCount()));
+        nativeStatistics.register(prefix + "_misses", description + " misses", true,
+                () -> sumOverMounts(mount -> cache.apply(mount).getMissCount()));
+        nativeStatistics.register(prefix + "_evictions", description + " evictions", true,
+                () -> sumOverMounts(mount -> cache.apply(mount).getEvictionCount()));
+        nativeStatistics.register(prefix + "_contentions", description + " stripe lock contentions", true,
+                () -> sumOverMounts(mount -> cache.apply(mount).getContentionCount()));
+        nativeStatistics.register(prefix + "_size", description + " entries", false,
+                () -> sumOverMounts(mount -> cache.apply(mount).size()));
+    }
+
+    private long sumOverMounts(ToLongFunction<CephRgwMount> value) {
+        long sum = 0;
+        for (CephRgwMount mount : mounts) {
+            if (mount != null) {
+                sum += value.applyAsLong(mount);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Create the librgw instance of the process on first use. Every fs.ceph.rgw.native.NAME=VALUE becomes the
+     * Ceph argument --NAME=VALUE, so that for example fs.ceph.rgw.native.rgw_obj_prefetch_size sets the
+     * prefetch size of reads. Later instances cannot change the options, they log a warning if theirs differ.
+     *
+     * @param conf the configuration
+     * @return the options in effect, with secrets masked
+     * @throws IOException if librgw cannot be created
+     */
+    private static synchronized Map<String, String> createLibrgw(final Configuration conf) throws IOException {
+        SortedMap<String, String> options = new TreeMap<>(conf.getPropsWithPrefix(NATIVE_OPTION_PREFIX));
+        List<String> args = new ArrayList<>(options.size());
+        SortedMap<String, String> shown = new TreeMap<>();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            args.add("--" + option.getKey() + "=" + option.getValue());
+            shown.put(option.getKey(), isSecretOption(option.getKey()) ? "*****" : option.getValue());
+        }
+        if (nativeArgs == null) {
+            try {
+                rgwCreate(args.toArray(new String[0]));
+            } catch (CephRgwException e) {
+                throw new IOException("librgw_create failed with options " + shown, e);
+            }
+            nativeArgs = args;
+            nativeOptions = Collections.unmodifiableMap(shown);
+            LOGGER.info("Created librgw with options {}", nativeOptions);
+        } else if (!args.equals(nativeArgs)) {
+            LOGGER.warn("librgw is already created with options {}, ignoring {}", nativeOptions, shown);
+        }
+        return nativeOptions;
+    }
+
+    private static boolean isSecretOption(final String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.equals("key") || lower.contains("secret") || lower.contains("password");
+    }
+
+    /**
+     * get the librgw options of the process, as passed through fs.ceph.rgw.native.* by the first instance
+     *
+     * @return the read-only options, with secrets masked
+     */
+    public static synchronized Map<String, String> getNativeOptions() {
+        return nativeOptions == null ? Collections.emptyMap() : nativeOptions;
+    }
+
+    private void mountBucket(final CephRgwMount mount, final String bucket) throws CephRgwException, IOException {
+        long start = System.nanoTime();
+        long currFh = rgwLookup(mount.getFsPtr(), getRootFH(mount.getFsPtr()), bucket, 0, 0, LOOKUP_FLAG_DIR);
+        nativeStatistics.record(CephRgwStorageStatistics.Op.LOOKUP, start);
+        start = System.nanoTime();
+        rgwGetattr(
+                mount.getFsPtr(),
+                currFh,
+                new AbstractFileHandlerReceiver(this) {
+                    @Override
+                    void receiveFileHandler(String name, int mask, FileStatus fileStatus)
+                            throws IOException {
+                        fileStatus.setPath(getWorkingDirectory());
+                        mount.setRootFH(currFh, fileStatus);
+                    }
+                });
+        nativeStatistics.record(CephRgwStorageStatistics.Op.GETATTR, start);
+    }
+
     @Override
     public URI getUri() {
         return rootBucketPath;
@@ -156,22 +411,215 @@ public class CephRgwFileSystem extends FileSystem {
         return SCHEME;
     }
 
-    public LibRGWFH getRootFH() {
-        return rootFH;
+    /**
+     * get the mount for an operation on a path
+     *
+     * @param absPath the absolute path
+     * @return the mount that looks up the path
+     */
+    private CephRgwMount selectMount(final Path absPath) {
+        return absPath.isRoot() ? selectMountBelow(absPath) : selectMountBelow(absPath.getParent());
     }
 
     /**
-     * get the RgwFsPtr
-     *  @return the rgw fs ptr
+     * get the mount for operations on the entries of a directory, it caches the handle of the directory
+     *
+     * @param absDir the absolute path of the directory
+     * @return the mount that looks up the entries
      */
-    public long getRgwFsPtr() {
-        return librgwFsPtr;
+    private CephRgwMount selectMountBelow(final Path absDir) {
+        if (mounts.length == 1) {
+            return mounts[0];
+        }
+        if (stripeMountsByThread) {
+            return mounts[MOUNT_SLOT.get() % mounts.length];
+        }
+        return mounts[Math.floorMod(absDir.toString().hashCode(), mounts.length)];
     }
 
     public long getVirtualBlockSize() {
         return virtualBlockSize;
     }
 
+    /**
+     * get the executor for background librgw data requests, created on first use.
+     * The pool is bounded by fs.ceph.rgw.io.threads and its threads exit when idle.
+     *
+     * @return the io executor
+     */
+    ExecutorService getIoExecutor() {
+        if (ioExecutor == null) {
+            synchronized (this) {
+                if (ioExecutor == null) {
+                    ioExecutor = newDaemonPool(ioThreads, "cephrgw-io-");
+                }
+            }
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * get the executor that writes the write-behind buffers to librgw, created on first use.
+     * It is kept apart from the io executor so that read-ahead cannot hold up writers, it is bounded by
+     * fs.ceph.rgw.write.behind.threads and its threads exit when idle.
+     *
+     * @return the write executor
+     */
+    ExecutorService getWriteExecutor() {
+        if (writeExecutor == null) {
+            synchronized (this) {
+                if (writeExecutor == null) {
+                    writeExecutor = newDaemonPool(writeBehindThreads, "cephrgw-write-");
+                }
+            }
+        }
+        return writeExecutor;
+    }
+
+    private static ExecutorService newDaemonPool(int threads, String namePrefix) {
+        AtomicInteger threadNum = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, namePrefix + threadNum.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * get the work-stealing pool of recursive listings, created on first use.
+     * Its parallelism is fs.ceph.rgw.list.parallelism and its threads exit when idle.
+     *
+     * @return the list executor
+     */
+    ForkJoinPool getListExecutor() {
+        if (listExecutor == null) {
+            synchronized (this) {
+                if (listExecutor == null) {
+                    AtomicInteger threadNum = new AtomicInteger();
+                    listExecutor = new ForkJoinPool(listParallelism, pool -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("cephrgw-list-" + threadNum.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, null, true);
+                }
+            }
+        }
+        return listExecutor;
+    }
+
+    /**
+     * whether a positional read of this length is split into concurrent librgw reads
+     *
+     * @param length the read length
+     * @return true if the read is split
+     */
+    boolean isParallelRead(long length) {
+        return parallelReadParallelism > 1 && parallelReadThreshold > 0 && length >= parallelReadThreshold;
+    }
+
+    /**
+     * get the size of each sub-range of a split read, a multiple of fs.ceph.rgw.parallel.read.alignment
+     * so that sub-ranges line up with the RADOS stripes of the object.
+     *
+     * @param length the read length
+     * @return the sub-range size
+     */
+    long getParallelReadChunkSize(long length) {
+        long chunk = (length + parallelReadParallelism - 1) / parallelReadParallelism;
+        return Math.max(parallelReadAlignment, (chunk + parallelReadAlignment - 1) / parallelReadAlignment
+                * parallelReadAlignment);
+    }
+
+    /**
+     * get the pool that lends read buffers to the streams of this file system
+     *
+     * @return the buffer pool
+     */
+    CephRgwBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * get the pool that lends write-behind buffers, capped by fs.ceph.rgw.write.behind.memory.limit
+     *
+     * @return the write buffer pool
+     */
+    CephRgwBufferPool getWriteBufferPool() {
+        return writeBufferPool;
+    }
+
+    /**
+     * get the pool of direct readdir pages, capped by fs.ceph.rgw.list.page.pool.size
+     *
+     * @return the list page pool
+     */
+    CephRgwBufferPool getListPagePool() {
+        return listPagePool;
+    }
+
+    long getBufferPoolWaitMs() {
+        return bufferPoolWaitMs;
+    }
+
+    /**
+     * Let the buffer sweeper take back the pool memory of a stream once it sits idle.
+     *
+     * @param stream the stream that borrowed a buffer
+     */
+    void trackBufferedStream(CephRgwInputStream stream) {
+        if (bufferSweeper != null) {
+            bufferedStreams.add(stream);
+        }
+    }
+
+    void untrackBufferedStream(CephRgwInputStream stream) {
+        bufferedStreams.remove(stream);
+    }
+
+    /**
+     * Take the buffers back from streams that have been idle for fs.ceph.rgw.buffer.pool.idle.ms, including
+     * streams that were dropped without close, then drop the pooled buffers idle for as long.
+     */
+    private void sweepBuffers() {
+        try {
+            for (CephRgwInputStream stream : bufferedStreams) {
+                stream.releaseIdleBuffers(bufferIdleMs);
+            }
+            bufferPool.trim(bufferIdleMs);
+            writeBufferPool.trim(bufferIdleMs);
+            listPagePool.trim(bufferIdleMs);
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic task.
+            LOGGER.warn("buffer sweep failed.", e);
+        }
+    }
+
+    long getVectoredReadMinSeek() {
+        return vectoredReadMinSeek;
+    }
+
+    long getVectoredReadMaxMerged() {
+        return vectoredReadMaxMerged;
+    }
+
+    /**
+     * the counts and latencies of the librgw calls of this file system
+     *
+     * @return the storage statistics
+     */
+    @Override
+    public CephRgwStorageStatistics getStorageStatistics() {
+        return nativeStatistics;
+    }
+
+    CephRgwStorageStatistics getNativeStatistics() {
+        return nativeStatistics;
+    }
+
     /**
      * get the CephRgw Statistics
      *  @return CephRgw Statistics
@@ -192,11 +640,24 @@ public class CephRgwFileSystem extends FileSystem {
     public FSDataInputStream open(final Path path, final int bufferSize) throws IOException {
         statistics.incrementReadOps(1);
         Path absPath = getAbsPath(path);
-        if (isDirectory(path)){
-            throw new PathIsDirectoryException("Error:Path is directory.");
+        CephRgwMetadataCache.Entry entry = metadataCache.get(absPath);
+        if (entry != null) {
+            if (entry.isNegative()) {
+                throw new FileNotFoundException(absPath.toString());
+            }
+            if (entry.getStatus().isDirectory()) {
+                throw new PathIsDirectoryException("Error:Path is directory.");
+            }
+        }
+        try {
+            return doOpen(absPath, bufferSize);
+        } catch (FileNotFoundException e) {
+            // A file lookup may either miss a directory or resolve to it, the stream rejects the latter.
+            if (getFileStatus(absPath).isDirectory()) {
+                throw new PathIsDirectoryException("Error:Path is directory.");
+            }
+            throw e;
         }
-        FSDataInputStream returnInputStream = doOpen(absPath, bufferSize);
-        return returnInputStream;
     }
 
     /**
@@ -225,7 +686,7 @@ public class CephRgwFileSystem extends FileSystem {
             throws IOException {
         Path absPath = getAbsPath(path);
         Path parent = absPath.getParent();
-        if (parent != null) {
+        if (parent != null && !isKnownDirectory(parent)) {
             mkdirs(parent, permission);
         }
         return createNonRecursive(absPath, permission, overwrite, bufferSize, replication,
@@ -260,19 +721,29 @@ public class CephRgwFileSystem extends FileSystem {
         statistics.incrementWriteOps(1);
         Path absPath = getAbsPath(newFilePath);
         Path parent = absPath.getParent();
-        if(flags.contains(CreateFlag.OVERWRITE)){
-            if (parent != null && !exists(parent)) {
-                throw new FileNotFoundException("Error:File doesn't exist.");
-            }
-        }else {
-            if (parent != null && exists(absPath)) {
+        if (!flags.contains(CreateFlag.OVERWRITE)) {
+            FileStatus existing = getFileStatusOrNull(absPath);
+            if (existing != null) {
+                if (existing.isDirectory()) {
+                    throw new PathIsDirectoryException("Error:Path is Directory");
+                }
                 throw new FileAlreadyExistsException("Error:File already exist.");
             }
         }
-        if(isDirectory(absPath)){
-            throw new PathIsDirectoryException("Error:Path is Directory");
+        if (parent != null && !isKnownDirectory(parent)) {
+            FileStatus parentStatus = getFileStatusOrNull(parent);
+            if (parentStatus == null) {
+                throw new FileNotFoundException("Error:File doesn't exist.");
+            }
+            if (parentStatus.isFile()) {
+                throw new ParentNotDirectoryException(parent.toString());
+            }
         }
+        // A single lookup with create finds an existing directory or file, or makes the handle of the new file.
         CephRgwOutputStream cos = new CephRgwOutputStream(this, absPath);
+        invalidateMetadata(absPath);
+        // The lookup only creates the handle in memory, librgw stores the object on close only after a write.
+        // Write nothing now so that a file closed without data, such as a _SUCCESS marker, is persisted.
         boolean isException = false;
         try {
             cos.write(EMPTY_BYTE_TMP, 0, 0);
@@ -285,7 +756,8 @@ public class CephRgwFileSystem extends FileSystem {
                 cos.close();
             }
         }
-        return new FSDataOutputStream(new BufferedOutputStream(cos, cephRgwBufferSize), statistics);
+        return new CephRgwDataOutputStream(
+                new CephRgwWriteBehindOutputStream(this, cos, cephRgwBufferSize, writeBehindBuffers), statistics);
     }
 
     /**
@@ -307,9 +779,247 @@ public class CephRgwFileSystem extends FileSystem {
         throw new UnsupportedOperationException("append Not implement yet.");
     }
 
+    /**
+     * Rename a file with rgw_rename, or a directory file by file in parallel.
+     * As in HDFS, a directory target receives the source under its own name, and the rename fails
+     * with false for a missing source, an existing file target, a missing target parent or a target
+     * inside the source.
+     *
+     * @param src the source path
+     * @param dst the target path
+     * @return whether the rename happened
+     * @throws IOException failure
+     */
     @Override
     public boolean rename(final Path src, final Path dst) throws IOException {
-        return s3aFileSystemTmp.rename(src, dst);
+        statistics.incrementWriteOps(1);
+        Path srcPath = getAbsPath(src);
+        Path dstPath = getAbsPath(dst);
+        try {
+            return doRename(srcPath, dstPath);
+        } finally {
+            invalidateTree(srcPath);
+            invalidateTree(dstPath);
+            invalidateMetadata(dstPath);
+        }
+    }
+
+    private boolean doRename(final Path srcPath, final Path dstPath) throws IOException {
+        if (srcPath.isRoot()) {
+            return false;
+        }
+        metadataCache.invalidate(srcPath);
+        metadataCache.invalidate(dstPath);
+        FileStatus srcStatus = getFileStatusOrNull(srcPath);
+        if (srcStatus == null) {
+            LOGGER.error("Rename source does not exist:" + srcPath);
+            return false;
+        }
+        if (srcPath.equals(dstPath)) {
+            return srcStatus.isFile();
+        }
+        if (dstPath.toString().startsWith(srcPath.toString() + "/")) {
+            return false;
+        }
+        Path target = dstPath;
+        FileStatus dstStatus = getFileStatusOrNull(dstPath);
+        if (dstStatus != null) {
+            if (dstStatus.isFile()) {
+                return false;
+            }
+            target = new Path(dstPath, srcPath.getName());
+            if (target.equals(srcPath)) {
+                return srcStatus.isFile();
+            }
+            metadataCache.invalidate(target);
+            if (getFileStatusOrNull(target) != null) {
+                return false;
+            }
+        } else {
+            FileStatus parentStatus = getFileStatusOrNull(dstPath.getParent());
+            if (parentStatus == null || parentStatus.isFile()) {
+                return false;
+            }
+        }
+        if (srcStatus.isFile()) {
+            CephRgwMount mount = selectMount(srcPath);
+            try (LibRGWFH srcParentFh = getFileHandleByAbsPath(srcPath.getParent(), LOOKUP_FLAG_NONE, true, false,
+                    mount);
+                 LibRGWFH dstParentFh = getFileHandleByAbsPath(target.getParent(), LOOKUP_FLAG_NONE, true, false,
+                    mount)) {
+                renameFile(srcPath, srcParentFh, target, dstParentFh);
+            }
+        } else {
+            new CephRgwRenameEngine(this, getListExecutor()).renameTree(srcPath, target);
+        }
+        return true;
+    }
+
+    /**
+     * Copy a file or directory tree inside this bucket on the server side.
+     * As with FileUtil.copy, a directory target receives the source under its own name.
+     *
+     * @param src the source path
+     * @param dst the target path
+     * @param overwrite whether an existing target file is replaced
+     * @throws IOException failure, FileNotFoundException for a missing source or target parent
+     */
+    public void copy(final Path src, final Path dst, final boolean overwrite) throws IOException {
+        Path srcPath = getAbsPath(src);
+        Path target = getAbsPath(dst);
+        FileStatus srcStatus = getFileStatus(srcPath);
+        FileStatus dstStatus = getFileStatusOrNull(target);
+        if (dstStatus != null && dstStatus.isDirectory()) {
+            target = new Path(target, srcPath.getName());
+            dstStatus = getFileStatusOrNull(target);
+        }
+        if (target.equals(srcPath) || target.toString().startsWith(srcPath.toString() + "/")) {
+            throw new IOException("Cannot copy " + srcPath + " to itself.");
+        }
+        if (dstStatus != null && (!overwrite || dstStatus.isDirectory() != srcStatus.isDirectory())) {
+            throw new FileAlreadyExistsException("Error:File already exist:" + target);
+        }
+        if (!target.getParent().isRoot() && !getFileStatus(target.getParent()).isDirectory()) {
+            throw new ParentNotDirectoryException(target.getParent().toString());
+        }
+        statistics.incrementWriteOps(1);
+        new CephRgwCopyEngine(this, getListExecutor(), getCopyTransfers(), getUri().getAuthority())
+                .copy(srcPath, srcStatus, target);
+    }
+
+    /**
+     * Copy between file systems like FileUtil.copy, on the server side when both paths are in the same bucket.
+     *
+     * @param srcFs the source file system
+     * @param src the source path
+     * @param dstFs the target file system
+     * @param dst the target path
+     * @param deleteSource whether to delete the source afterwards
+     * @param overwrite whether an existing target file is replaced
+     * @param conf the configuration of a streaming copy
+     * @return whether the copy succeeded
+     * @throws IOException failure
+     */
+    public static boolean copy(FileSystem srcFs, Path src, FileSystem dstFs, Path dst, boolean deleteSource,
+            boolean overwrite, Configuration conf) throws IOException {
+        if (srcFs instanceof CephRgwFileSystem && srcFs.getUri().equals(dstFs.getUri())) {
+            ((CephRgwFileSystem) srcFs).copy(src, dst, overwrite);
+            return !deleteSource || srcFs.delete(src, true);
+        }
+        return FileUtil.copy(srcFs, src, dstFs, dst, deleteSource, overwrite, conf);
+    }
+
+    /**
+     * get the transfer manager of server-side copies, created on first use
+     * The S3 client is built by the client factory of S3A, with the endpoint settings and credentials
+     * of this file system.
+     *
+     * @return the transfer manager
+     * @throws IOException failure
+     */
+    private TransferManager getCopyTransfers() throws IOException {
+        if (copyTransfers == null) {
+            synchronized (this) {
+                if (copyTransfers == null) {
+                    Class<? extends S3ClientFactory> factoryClass = getConf().getClass(
+                            Constants.S3_CLIENT_FACTORY_IMPL, Constants.DEFAULT_S3_CLIENT_FACTORY_IMPL,
+                            S3ClientFactory.class);
+                    AmazonS3 s3;
+                    try {
+                        s3 = ReflectionUtils.newInstance(factoryClass, getConf())
+                                .createS3Client(reSetUriToS3A(getUri()), getUri().getAuthority(), credentials);
+                    } catch (URISyntaxException e) {
+                        throw new IOException("Invalid file system uri " + getUri(), e);
+                    }
+                    copyTransfers = TransferManagerBuilder.standard().withS3Client(s3).build();
+                }
+            }
+        }
+        return copyTransfers;
+    }
+
+    /**
+     * whether a directory was seen by a recent lookup or created through this instance
+     *
+     * @param absPath the absolute path
+     * @return true if the directory is known to exist
+     */
+    private boolean isKnownDirectory(final Path absPath) {
+        if (absPath.isRoot()) {
+            return true;
+        }
+        for (CephRgwMount mount : mounts) {
+            if (mount.getDirHandleCache().contains(absPath.toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private LibRGWFH getDirectoryHandle(final Path absPath, final CephRgwMount mount) throws IOException {
+        if (!absPath.isRoot()) {
+            LibRGWFH cached = mount.getDirHandleCache().get(absPath.toString());
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return getFileHandleByAbsPath(absPath, LOOKUP_FLAG_CREATE | LOOKUP_FLAG_DIR, true, false, mount);
+    }
+
+    private FileStatus getFileStatusOrNull(final Path absPath) throws IOException {
+        try {
+            return getFileStatus(absPath);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * rename one file with rgw_rename, falling back to a copy through S3A where librgw refuses
+     *
+     * @param src the absolute source file
+     * @param srcParentFh the handle of the source directory
+     * @param dst the absolute target file
+     * @param dstParentFh the handle of the target directory, on the mount of srcParentFh
+     * @throws IOException failure
+     */
+    void renameFile(final Path src, final LibRGWFH srcParentFh, final Path dst, final LibRGWFH dstParentFh)
+            throws IOException {
+        try {
+            long start = System.nanoTime();
+            try {
+                rgwRename(srcParentFh.getFsPtr(), srcParentFh.getFhPtr(), src.getName(), dstParentFh.getFhPtr(),
+                        dst.getName());
+            } finally {
+                nativeStatistics.record(CephRgwStorageStatistics.Op.RENAME, start);
+            }
+        } catch (CephRgwException e) {
+            if (e.getErrcode() == ERR_NOT_EXISTS) {
+                throw new FileNotFoundException(src.toString());
+            }
+            if (e.getErrcode() != ERR_NOT_PERMITTED && e.getErrcode() != ERR_CROSS_DEVICE
+                    && e.getErrcode() != ERR_NOT_SUPPORTED) {
+                throw new IOException(String.format(Locale.ROOT, "rename %s to %s failed.", src, dst), e);
+            }
+            LOGGER.debug("librgw cannot rename {}, copying it through S3A.", src);
+            if (!s3aFileSystemTmp.rename(Path.getPathWithoutSchemeAndAuthority(src),
+                    Path.getPathWithoutSchemeAndAuthority(dst))) {
+                throw new IOException(String.format(Locale.ROOT, "rename %s to %s failed.", src, dst), e);
+            }
+        }
+    }
+
+    /**
+     * Count an object removed by a delete in the files_deleted or directories_deleted statistic.
+     *
+     * @param directory whether the object was a directory
+     */
+    void countDeleted(boolean directory) {
+        if (directory) {
+            directoriesDeleted.increment();
+        } else {
+            filesDeleted.increment();
+        }
     }
 
     @Override
@@ -320,12 +1030,44 @@ public class CephRgwFileSystem extends FileSystem {
             throw new IOException("Invalid delete path.");
         }
         Path parent = absPath.getParent();
-        try (LibRGWFH parentFh = getFileHandleByAbsPath(parent, LOOKUP_FLAG_NONE, true, false)) {
-            doDelete(absPath, parentFh, recursive);
+        // Decide on what is there now, not on a cached status.
+        metadataCache.invalidate(absPath);
+        try (LibRGWFH parentFh = getFileHandleByAbsPath(parent, LOOKUP_FLAG_NONE, true, false, selectMount(absPath))) {
+            boolean isDirectory = getFileStatus(absPath).isDirectory();
+            if (isDirectory) {
+                if (!recursive) {
+                    try (CephRgwDirectoryLister iter = listDirectory(absPath)) {
+                        if (iter.hasNext()) {
+                            throw new PathIsNotEmptyDirectoryException(absPath.toString());
+                        }
+                    }
+                } else {
+                    new CephRgwDeleteEngine(this, getListExecutor()).deleteContents(absPath);
+                }
+            }
+            long start = System.nanoTime();
+            try {
+                rgwUnlink(parentFh.getFsPtr(), parentFh.getFhPtr(), absPath.getName());
+            } finally {
+                nativeStatistics.record(CephRgwStorageStatistics.Op.UNLINK, start);
+            }
+            countDeleted(isDirectory);
             return true;
+        } catch (CephRgwException e) {
+            if (e.getErrcode() == ERR_NOT_EXISTS) {
+                LOGGER.error("FileNotFoundException:" + absPath);
+                return false;
+            }
+            if (e.getErrcode() == ERR_DIR_NOT_EMPTY) {
+                throw new DirectoryNotEmptyException(absPath.toUri().getPath());
+            }
+            throw new IOException(String.format(Locale.ROOT, "delete path %s failed.", absPath), e);
         } catch (FileNotFoundException fnfe) {
             LOGGER.error("FileNotFoundException:" + fnfe.toString());
             return false;
+        } finally {
+            invalidateTree(absPath);
+            invalidateMetadata(parent);
         }
     }
 
@@ -339,50 +1081,212 @@ public class CephRgwFileSystem extends FileSystem {
         return getUri().toString();
     }
 
-    private  class ListStatusFileHandlerReceiver extends AbstractFileHandlerReceiver {
-        private Path absPath;
-        private LinkedList<FileStatus> ret;
-        private LibRGWFH fileHandle;
+    /**
+     * get the files status
+     *
+     * @param newFilePath the file path
+     * @return the files status under the path
+     * @throws IOException failure
+     */
+    @Override
+    public FileStatus[] listStatus(final Path newFilePath) throws IOException {
+        RemoteIterator<FileStatus> iter = listStatusIterator(newFilePath);
+        ArrayList<FileStatus> ret = new ArrayList<>();
+        while (iter.hasNext()) {
+            ret.add(iter.next());
+        }
+        return ret.toArray(new FileStatus[ret.size()]);
+    }
+
+    /**
+     * list the files status page by page, so that huge directories are not held in memory
+     *
+     * @param newFilePath the file path
+     * @return an iterator over the files status under the path
+     * @throws IOException failure
+     */
+    @Override
+    public RemoteIterator<FileStatus> listStatusIterator(final Path newFilePath) throws IOException {
+        FileStatus checkFileTypeFs = getFileStatus(newFilePath);
+        Path absPath = getAbsPath(newFilePath);
+        if (checkFileTypeFs.isFile()) {
+            FileStatus[] single = new FileStatus[]{checkFileTypeFs};
+            return new RemoteIterator<FileStatus>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < single.length;
+                }
 
-        ListStatusFileHandlerReceiver(Path absPath, LinkedList<FileStatus> ret, LibRGWFH fileHandle) {
-            super(CephRgwFileSystem.this);
-            this.absPath = absPath;
-            this.ret = ret;
-            this.fileHandle = fileHandle;
+                @Override
+                public FileStatus next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException(absPath.toString());
+                    }
+                    return single[index++];
+                }
+            };
         }
+        return listDirectory(absPath);
+    }
+
+    /**
+     * list the files under a path, walking the subdirectories in parallel when recursive
+     * Files of one directory come in readdir order, files of different directories in no particular order.
+     *
+     * @param path the file or directory path
+     * @param recursive whether to descend into subdirectories
+     * @return an iterator over the files with their block locations
+     * @throws IOException failure
+     */
+    @Override
+    public RemoteIterator<LocatedFileStatus> listFiles(final Path path, final boolean recursive) throws IOException {
+        Path absPath = getAbsPath(path);
+        FileStatus status = getFileStatus(absPath);
+        if (!recursive || status.isFile()) {
+            return super.listFiles(absPath, recursive);
+        }
+        return new CephRgwTreeWalker(this, getListExecutor(), absPath, listQueueSize);
+    }
+
+    void walkerStarted(CephRgwTreeWalker walker) {
+        activeWalkers.add(walker);
+    }
 
-        @Override
-        void receiveFileHandler(String name, long statPtr, int mask, FileStatus fileStatus) {
-            if (fileStatus.getPath() == null) {
-                return;
+    void walkerDone(CephRgwTreeWalker walker) {
+        activeWalkers.remove(walker);
+    }
+
+    @Override
+    public FileStatus[] globStatus(final Path pathPattern) throws IOException {
+        return globStatus(pathPattern, path -> true);
+    }
+
+    /**
+     * expand a glob pattern, looking up literal components directly and listing wildcard levels in parallel
+     *
+     * @param pathPattern the glob pattern
+     * @param filter the user filter, applied to the full matched paths
+     * @return the matches sorted by path, or null if a pattern without wildcards matches nothing
+     * @throws IOException failure
+     */
+    @Override
+    public FileStatus[] globStatus(final Path pathPattern, final PathFilter filter) throws IOException {
+        return new CephRgwGlobber(this, getListExecutor(), pathPattern, filter).glob();
+    }
+
+    /**
+     * summarize a path, walking the subdirectories in parallel with the stat returned by readdir
+     *
+     * @param path the file or directory path
+     * @return the total length, file count and directory count
+     * @throws IOException failure
+     */
+    @Override
+    public ContentSummary getContentSummary(final Path path) throws IOException {
+        Path absPath = getAbsPath(path);
+        FileStatus status = getFileStatus(absPath);
+        if (status.isFile()) {
+            return new ContentSummary.Builder()
+                    .length(status.getLen())
+                    .fileCount(1)
+                    .directoryCount(0)
+                    .spaceConsumed(status.getLen())
+                    .build();
+        }
+        return new CephRgwSummaryEngine(this, getListExecutor()).summarize(absPath);
+    }
+
+    @Override
+    protected RemoteIterator<LocatedFileStatus> listLocatedStatus(final Path path, final PathFilter filter)
+            throws IOException {
+        RemoteIterator<FileStatus> iter = listStatusIterator(path);
+        return new RemoteIterator<LocatedFileStatus>() {
+            private LocatedFileStatus next;
+
+            @Override
+            public boolean hasNext() throws IOException {
+                while (next == null && iter.hasNext()) {
+                    FileStatus status = iter.next();
+                    if (filter.accept(status.getPath())) {
+                        next = toLocatedFileStatus(status);
+                    }
+                }
+                return next != null;
             }
-            fileStatus.setPath(new Path(absPath, fileStatus.getPath()));
-            ret.add(fileStatus);
-            if (!ensureReadonly) {
-                return;
+
+            @Override
+            public LocatedFileStatus next() throws IOException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException(path.toString());
+                }
+                LocatedFileStatus ret = next;
+                next = null;
+                return ret;
             }
-        }
+        };
     }
 
     /**
-     * get the files status
+     * page through a directory without checking its type first
      *
-     * @param newFilePath the file path
-     * @return the files status under the path
+     * @param absPath the absolute directory path
+     * @return the directory lister
+     * @throws IOException failure
+     */
+    CephRgwDirectoryLister listDirectory(final Path absPath) throws IOException {
+        LibRGWFH fileHandle = getFileHandleByAbsPath(absPath, LOOKUP_FLAG_NONE, true, false);
+        return new CephRgwDirectoryLister(this, absPath, fileHandle, listBatchSize);
+    }
+
+    /**
+     * page through a directory whose handle the caller already holds
+     *
+     * @param absPath the absolute directory path
+     * @param fileHandle the directory handle, the lister takes a reference of its own
+     * @return the directory lister
+     */
+    CephRgwDirectoryLister listDirectory(final Path absPath, final LibRGWFH fileHandle) {
+        fileHandle.retain();
+        return new CephRgwDirectoryLister(this, absPath, fileHandle, listBatchSize);
+    }
+
+    /**
+     * locate the virtual blocks of a file on the hosts that store their stripes
+     * Without fs.ceph.rgw.placement.resolver.impl every block is reported on localhost.
+     *
+     * @param file the file status
+     * @param start the range start
+     * @param len the range length
+     * @return the blocks overlapping the range
      * @throws IOException failure
      */
     @Override
-    public FileStatus[] listStatus(final Path newFilePath) throws IOException {
-        FileStatus checkFileTypeFs = getFileStatus(newFilePath);
-        if (checkFileTypeFs.isFile()) {
-            return new FileStatus[]{checkFileTypeFs};
+    public BlockLocation[] getFileBlockLocations(final FileStatus file, final long start, final long len)
+            throws IOException {
+        if (blockLocator == null || file == null) {
+            return super.getFileBlockLocations(file, start, len);
         }
-        Path absPath = getAbsPath(newFilePath);
-        LinkedList<FileStatus> ret = new LinkedList<FileStatus>();
-        try (LibRGWFH fileHandle = getFileHandleByAbsPath(absPath, LOOKUP_FLAG_NONE, true, false)) {
-            rgwReaddir(librgwFsPtr, fileHandle.getFhPtr(), new ListStatusFileHandlerReceiver(absPath, ret, fileHandle));
+        if (start < 0 || len < 0) {
+            throw new IllegalArgumentException("Invalid start or len parameter");
         }
-        return ret.toArray(new FileStatus[ret.size()]);
+        if (file.getLen() <= start) {
+            return new BlockLocation[0];
+        }
+        return blockLocator.getBlockLocations(file, start, len);
+    }
+
+    /**
+     * attach the block locations of a file to its status
+     *
+     * @param status the status
+     * @return the located status, without locations for a directory
+     * @throws IOException failure
+     */
+    LocatedFileStatus toLocatedFileStatus(final FileStatus status) throws IOException {
+        return new LocatedFileStatus(status,
+                status.isFile() ? getFileBlockLocations(status, 0, status.getLen()) : null);
     }
 
     @Override
@@ -400,19 +1304,34 @@ public class CephRgwFileSystem extends FileSystem {
         Path absPath = getAbsPath(path);
         Path parent = absPath.getParent();
         // Create a trail in recursive mode. If the root directory is null, the path is successfully created.
-        if (parent == null) {
+        // Stop at the first directory this instance has already confirmed or created.
+        if (parent == null || isKnownDirectory(absPath)) {
             return true;
         }
-        if (exists(absPath)) {
-            if (!getFileStatus(absPath).isFile()) {
+        FileStatus status = getFileStatusOrNull(absPath);
+        if (status != null) {
+            if (!status.isFile()) {
                 return true;
             }
             LOGGER.error("File is already exist:" + path.toString());
             throw new FileExistsException("Failed to create the file because the file already exists.");
         }
         mkdirs(parent, permission);
-        try (LibRGWFH fileHandle = getFileHandleByAbsPath(parent, LOOKUP_FLAG_CREATE | LOOKUP_FLAG_DIR, true, false)) {
-            rgwMkdir(librgwFsPtr, fileHandle.getFhPtr(), absPath.getName(), permission.toShort());
+        // Make the handle of the new directory on the mount that looks up its entries.
+        try (LibRGWFH fileHandle = getDirectoryHandle(parent, selectMountBelow(absPath))) {
+            long[] stat = new long[LOOKUP_STAT_FIELDS];
+            long fh;
+            long start = System.nanoTime();
+            try {
+                fh = rgwMkdir(fileHandle.getFsPtr(), fileHandle.getFhPtr(), absPath.getName(), permission.toShort(),
+                        stat);
+            } finally {
+                nativeStatistics.record(CephRgwStorageStatistics.Op.MKDIR, start);
+            }
+            invalidateMetadata(absPath);
+            FileStatus created = newFileStatus(stat[0], stat[1], stat[2], (int) stat[3], absPath);
+            CephRgwMount mount = fileHandle.getMount();
+            mount.getDirHandleCache().put(absPath.toString(), new LibRGWFH(mount, fh, created)).close();
             return true;
         } catch (CephRgwException e) {
             if (e.getErrcode() == ERR_EXISTS) {
@@ -432,18 +1351,56 @@ public class CephRgwFileSystem extends FileSystem {
     @Override
     public FileStatus getFileStatus(final Path path) throws IOException {
         Path absPath = getAbsPath(path);
+        CephRgwMetadataCache.Entry entry = metadataCache.get(absPath);
+        if (entry != null) {
+            if (entry.isNegative()) {
+                throw new FileNotFoundException(absPath.toString());
+            }
+            return entry.getStatus();
+        }
         try (LibRGWFH fh = getFileHandleByAbsPath(absPath, LOOKUP_FLAG_NONE, true, true)) {
-            FileStatus ret = fh.getFileStatus();
-            return ret;
+            return new FileStatus(fh.getFileStatus());
         }
     }
 
     @Override
     public void close() throws IOException {
-        if (rootFH != null) {
-            rootFH.doClose();
+        if (metricsSourceName != null) {
+            DefaultMetricsSystem.instance().unregisterSource(metricsSourceName);
+            metricsSourceName = null;
+        }
+        if (ioExecutor != null) {
+            ioExecutor.shutdownNow();
+        }
+        if (writeExecutor != null) {
+            writeExecutor.shutdownNow();
+        }
+        if (bufferSweeper != null) {
+            bufferSweeper.shutdownNow();
+        }
+        // Walks still running lose their pool, their callers would otherwise wait forever.
+        for (CephRgwTreeWalker walker : activeWalkers) {
+            walker.cancel(new IOException("Filesystem closed"));
+        }
+        if (listExecutor != null) {
+            listExecutor.shutdownNow();
+            // Listing tasks hold directory handles, they must let go of them before the mounts go away.
+            try {
+                if (!listExecutor.awaitTermination(LIST_SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.warn("Listing tasks still running after close.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (copyTransfers != null) {
+            copyTransfers.shutdownNow(true);
+        }
+        for (CephRgwMount mount : mounts) {
+            if (mount != null) {
+                mount.close();
+            }
         }
-        rgwUmount(librgwFsPtr);
         super.close();
         S3AUtils.closeAutocloseables(LOGGER, credentials);
         credentials = null;
@@ -459,15 +1416,59 @@ public class CephRgwFileSystem extends FileSystem {
         return (mode & FLAG_DIR) != 0;
     }
 
+    /**
+     * build the FileStatus of an entry from its stat fields
+     *
+     * @param length st_size
+     * @param modifyTime st_mtime in milliseconds
+     * @param accessTime st_atime in milliseconds
+     * @param mode st_mode
+     * @param path the entry path, may be null
+     * @return the FileStatus
+     */
+    FileStatus newFileStatus(long length, long modifyTime, long accessTime, int mode, Path path) {
+        return new FileStatus(length, isDir(mode), 0, virtualBlockSize, modifyTime, accessTime,
+                new FsPermission(mode), CONST_USER, CONST_GROUP, path);
+    }
+
+    /**
+     * remember the status of a listed entry
+     *
+     * @param status the status with its absolute path
+     * @throws IOException failure
+     */
+    void cacheFileStatus(final FileStatus status) throws IOException {
+        metadataCache.put(status.getPath(), status);
+    }
+
+    /**
+     * drop the cached status of a path that changed, and of its parents, which may be cached as missing
+     *
+     * @param absPath the absolute path
+     */
+    void invalidateMetadata(final Path absPath) {
+        for (CephRgwMount mount : mounts) {
+            mount.getHandleCache().invalidate(absPath.toString());
+        }
+        for (Path curr = absPath; curr != null; curr = curr.getParent()) {
+            metadataCache.invalidate(curr);
+        }
+    }
+
+    private void invalidateTree(final Path absPath) {
+        for (CephRgwMount mount : mounts) {
+            mount.getHandleCache().invalidateTree(absPath.toString());
+            mount.getDirHandleCache().invalidateTree(absPath.toString());
+        }
+        metadataCache.invalidateTree(absPath);
+    }
+
     private FSDataInputStream doOpen(final Path absPath, final int bufSize) throws IOException {
-        CephRgwInputStream in = new CephRgwInputStream(this, absPath);
-        long fileSize = in.getFileSize();
-        if (fileSize <= 0) {
-            return new FSDataInputStream(in);
+        // The stream buffers internally so that FSDataInputStream sees it as ByteBufferReadable.
+        if (readAheadDepth > 0) {
+            return new FSDataInputStream(new CephRgwInputStream(this, absPath, readAheadBlockSize, readAheadDepth));
         }
-        int maxIntFileSize = (int) Math.min(fileSize, Integer.MAX_VALUE);
-        int newBufferSize = Math.min(maxIntFileSize, cephRgwBufferSize);
-        return new FSDataInputStream(new BufferedFSInputStream(in, newBufferSize));
+        return new FSDataInputStream(new CephRgwInputStream(this, absPath, cephRgwBufferSize, 0));
     }
 
     /**
@@ -482,81 +1483,104 @@ public class CephRgwFileSystem extends FileSystem {
      */
     public LibRGWFH getFileHandleByAbsPath(
             final Path path, final int flag, final boolean isCache, final boolean isLoadListStatus) throws IOException {
+        return getFileHandleByAbsPath(path, flag, isCache, isLoadListStatus, selectMount(path));
+    }
+
+    /**
+     * get the file handler by the abs path on a given mount, for handles that are used together
+     *
+     * @param path the input param
+     * @param flag the file operate mode
+     * @param isCache is cache field handler
+     * @param isLoadListStatus whether get the all the files handlers status
+     * @param mount the mount to open the handle on
+     * @return LibRGWfile handler
+     * @throws IOException failure
+     */
+    LibRGWFH getFileHandleByAbsPath(final Path path, final int flag, final boolean isCache,
+            final boolean isLoadListStatus, final CephRgwMount mount) throws IOException {
         boolean internalIsCache = isCache && ensureReadonly;
         if (path.isRoot()) {
-            return rootFH;
+            return mount.getRootFH();
+        }
+        CephRgwFileHandleCache handleCache = mount.getHandleCache();
+        if (internalIsCache) {
+            LibRGWFH cached = handleCache.get(path.toString());
+            if (cached != null) {
+                if (isTypeOf(cached, flag)) {
+                    return cached;
+                }
+                cached.close();
+            }
         }
         try {
-            return getLibRGWFHDirect(path, flag, internalIsCache);
+            LibRGWFH fileHandle = getLibRGWFHDirect(path, flag, mount);
+            if (fileHandle.getFileStatus().isDirectory()) {
+                fileHandle = mount.getDirHandleCache().put(path.toString(), fileHandle);
+            }
+            if (internalIsCache && isTypeOf(fileHandle, flag)) {
+                return handleCache.put(path.toString(), fileHandle);
+            }
+            return fileHandle;
         } catch (CephRgwException e) {
             if (e.getErrcode() == ERR_NOT_EXISTS) {
+                // Only a lookup of any type proves that nothing is there.
+                if (flag == LOOKUP_FLAG_NONE) {
+                    metadataCache.putNegative(path);
+                }
+                throw new FileNotFoundException(path.toString());
+            }
+            if (e.getErrcode() == ERR_NOT_DIR) {
+                // An ancestor is a file, so there is nothing at the path.
                 throw new FileNotFoundException(path.toString());
             }
             throw new IOException("Find path " + path.toString() + " failed.", e);
         }
     }
 
-    private LibRGWFH getLibRGWFHDirect(final Path path, int flag, boolean cache) throws CephRgwException, IOException {
-        String pathName = getCephPathStr(path).substring(1);
-        LibRGWFH[] ret = new LibRGWFH[1];
-        long fh = rgwLookup(librgwFsPtr, rootFH.getFhPtr(), pathName, 0, 0, flag);
-        rgwGetattr(
-                librgwFsPtr,
-                fh,
-                new AbstractFileHandlerReceiver(this) {
-                    @Override
-                    void receiveFileHandler(String name, long statPtr, int mask, FileStatus fileStatus)
-                            throws IOException {
-                        fileStatus.setPath(path);
-                        ret[0] = new LibRGWFH(CephRgwFileSystem.this, fh, fileStatus, cache);
-                    }
-                });
-        return ret[0];
-    }
-
-    private class DoDeleteFileHandlerReceiver extends AbstractFileHandlerReceiver{
-        private Path path;
-        private boolean recursive;
-        private LibRGWFH fileHandle;
-
-        DoDeleteFileHandlerReceiver(Path path, boolean recursive, LibRGWFH fileHandle) {
-            super(CephRgwFileSystem.this);
-            this.path = path;
-            this.recursive = recursive;
-            this.fileHandle = fileHandle;
+    private boolean isTypeOf(final LibRGWFH fileHandle, int flag) throws IOException {
+        if ((flag & LOOKUP_FLAG_DIR) != 0) {
+            return fileHandle.getFileStatus().isDirectory();
         }
-
-        @Override
-        void receiveFileHandler(String name, long statPtr, int mask, FileStatus fileStatus) throws IOException {
-            if (!recursive) {
-                throw new PathIsNotEmptyDirectoryException(path.toString());
-            }
-            if (fileStatus.getPath() == null) {
-                return;
-            }
-            fileStatus.setPath(new Path(path, fileStatus.getPath()));
-            try{
-                doDelete(fileStatus.getPath(), fileHandle, true);
-            } catch (FileNotFoundException e) {
-                LOGGER.debug("");
-            }
+        if ((flag & LOOKUP_FLAG_FILE) != 0) {
+            return fileHandle.getFileStatus().isFile();
         }
+        return true;
     }
 
-    private void doDelete(final Path path, final LibRGWFH parentFh, final boolean recursive) throws IOException {
-        try (LibRGWFH fileHandle = getFileHandleByAbsPath(path, LOOKUP_FLAG_NONE, false, false)) {
-            AbstractFileHandlerReceiver recver = new DoDeleteFileHandlerReceiver(path, recursive, fileHandle);
-            rgwReaddir(librgwFsPtr, fileHandle.getFhPtr(), recver);
-            rgwUnlink(librgwFsPtr, parentFh.getFhPtr(), path.getName());
-        } catch (CephRgwException e) {
-            if (e.getErrcode() == ERR_NOT_EXISTS) {
-                throw new FileNotFoundException(path.toString());
+    private LibRGWFH getLibRGWFHDirect(final Path path, int flag, final CephRgwMount mount)
+            throws CephRgwException, IOException {
+        String pathStr = getCephPathStr(path);
+        LibRGWFH parentFh = null;
+        String parentStr = null;
+        for (Path ancestor = path.getParent(); ancestor != null && !ancestor.isRoot(); ancestor = ancestor.getParent()) {
+            parentFh = mount.getDirHandleCache().get(ancestor.toString());
+            if (parentFh != null) {
+                parentStr = getCephPathStr(ancestor);
+                break;
             }
-            if (e.getErrcode() == ERR_DIR_NOT_EMPTY) {
-                throw new DirectoryNotEmptyException(path.toUri().getPath());
+        }
+        long[] stat = new long[LOOKUP_STAT_FIELDS];
+        long fh;
+        long start = System.nanoTime();
+        try {
+            if (parentFh == null) {
+                fh = rgwLookupStat(mount.getFsPtr(), mount.getRootFH().getFhPtr(), pathStr.substring(1), flag, stat);
+            } else {
+                fh = rgwLookupStat(mount.getFsPtr(), parentFh.getFhPtr(), pathStr.substring(parentStr.length() + 1),
+                        flag, stat);
+            }
+        } finally {
+            nativeStatistics.record(CephRgwStorageStatistics.Op.LOOKUP, start);
+            if (parentFh != null) {
+                parentFh.close();
             }
-            throw new IOException(String.format(Locale.ROOT, "delete path %s failed.", path), e);
         }
+        FileStatus fileStatus = newFileStatus(stat[0], stat[1], stat[2], (int) stat[3], path);
+        if ((flag & LOOKUP_FLAG_CREATE) == 0) {
+            metadataCache.put(path, fileStatus);
+        }
+        return new LibRGWFH(mount, fh, fileStatus);
     }
 
     private static void throwRgwExceptionForNative(final int errcode, final String msg) throws CephRgwException {
@@ -567,23 +1591,22 @@ public class CephRgwFileSystem extends FileSystem {
         return makeQualified(path);
     }
 
-    private String clearEndSeperator(final String src) {
-        StringBuilder returnPath = new StringBuilder(src);
-        while (returnPath.charAt(returnPath.length() - 1) == '/') {
-            returnPath.deleteCharAt(returnPath.length() - 1);
-        }
-        return returnPath.toString();
-    }
-
     private String getCephPathStr(final Path absPath) {
-        String pathStr = Path.getPathWithoutSchemeAndAuthority(absPath).toString();
-        pathStr = clearEndSeperator(pathStr);
-        return pathStr.replaceAll("/+", "/");
+        // Path has already collapsed repeated separators and dropped the trailing one.
+        return absPath.toUri().getPath();
     }
 
     private static native void staticInit(Class<AbstractFileHandlerReceiver> fileHandlerReceiver)
             throws CephRgwException;
 
+    /**
+     * create the librgw instance of the process, a no-op once it exists
+     *
+     * @param args the Ceph arguments, without the program name
+     * @throws CephRgwException failure
+     */
+    private static native void rgwCreate(String[] args) throws CephRgwException;
+
     /**
      * umount rgw
      *
@@ -606,6 +1629,21 @@ public class CephRgwFileSystem extends FileSystem {
     public native int rgwRead(long rgwFsPtr, long fileHandlePtr, long position, int length, byte[] buffer, int offset)
             throws CephRgwException;
 
+    /**
+     * rgw read the data into a direct ByteBuffer without copying through a java array
+     *
+     * @param rgwFsPtr the rgw filesystem ptr
+     * @param fileHandlePtr the rgw file handle ptr
+     * @param position position of file
+     * @param length expected read length
+     * @param buffer direct buffer to receive data
+     * @param offset start location in buffer
+     * @return the read result
+     * @throws CephRgwException failure
+     */
+    public native int rgwReadDirect(long rgwFsPtr, long fileHandlePtr, long position, int length, ByteBuffer buffer,
+            int offset) throws CephRgwException;
+
     /**
      * rgw write the data
      *
@@ -620,6 +1658,20 @@ public class CephRgwFileSystem extends FileSystem {
     public native void rgwWrite(long rgwFsPtr, long fileHandlePtr, long position, int length, byte[] buffer, int offset)
             throws CephRgwException;
 
+    /**
+     * rgw write the data from a direct ByteBuffer without copying through a java array
+     *
+     * @param rgwFsPtr the rgw filesystem ptr
+     * @param fileHandlePtr the rgw file handle ptr
+     * @param position position of file
+     * @param length expected write length
+     * @param buffer direct buffer holding the data to write
+     * @param offset start location in buffer
+     * @throws CephRgwException failure
+     */
+    public native void rgwWriteDirect(long rgwFsPtr, long fileHandlePtr, long position, int length, ByteBuffer buffer,
+            int offset) throws CephRgwException;
+
     /**
      * create rgw file system
      *
@@ -671,6 +1723,20 @@ public class CephRgwFileSystem extends FileSystem {
      */
     public native long getRootFH(long rgwFsPtr);
 
+    /**
+     * rgw lookup that also returns the stat of the handle, in a single crossing
+     *
+     * @param rgwFsPtr the rgw filesystem ptr
+     * @param parentFh the parent file handler
+     * @param pathName the path relative to the parent
+     * @param flag the lookup flag
+     * @param stat receives the size, modify time and access time in milliseconds and the mode
+     * @return the file handler
+     * @throws CephRgwException failure
+     */
+    public native long rgwLookupStat(long rgwFsPtr, long parentFh, String pathName, int flag, long[] stat)
+            throws CephRgwException;
+
     /**
      * rgw rename the file
      *
@@ -705,13 +1771,19 @@ public class CephRgwFileSystem extends FileSystem {
     public native void rgwGetattr(long rgwFsPtr, long fileHandlePtr, AbstractFileHandlerReceiver receiver) throws CephRgwException;
 
     /**
-     * rgw read the file folder
+     * read the next page of a directory into a direct buffer
+     * Each entry is an int name length, the UTF-8 name, the long size, modify time and access time in
+     * milliseconds and the int mode, all in native byte order.
      *
-     * @param rgwFsPtr the rgw filesystem ptr
-     * @param fileHandlePtr the file handler ptr
-     * @param receiver the AbstractFileHandlerReceiver
+     * @param rgwFsPtr the rgw ptr
+     * @param fileHandlePtr the directory handle ptr
+     * @param cookie the readdir offset to resume from, updated in place, and an end of directory flag
+     * @param buffer the direct buffer to fill from position 0
+     * @return the number of entries in the buffer
+     * @throws CephRgwException failure
      */
-    public native void rgwReaddir(long rgwFsPtr, long fileHandlePtr, AbstractFileHandlerReceiver receiver);
+    public native int rgwReaddirBatch(long rgwFsPtr, long fileHandlePtr, long[] cookie, ByteBuffer buffer)
+            throws CephRgwException;
 
     /**
      * rgw create folder
@@ -720,40 +1792,10 @@ public class CephRgwFileSystem extends FileSystem {
      * @param fileHandlePtr the file handler ptr
      * @param name the file name
      * @param mode the input param
+     * @param stat receives the size, modify time and access time in milliseconds and the mode
+     * @return the file handler of the new folder
      * @throws CephRgwException failure
      */
-    public native void rgwMkdir(long rgwFsPtr, long fileHandlePtr, String name, int mode) throws CephRgwException;
-
-    /**
-     * get the Length
-     *
-     * @param statPtr stat ptr for receive rgw handle
-     * @return the length
-     */
-    public native long getLength(long statPtr);
-
-    /**
-     * get the AccessTime
-     *
-     * @param statPtr stat ptr for receive rgw handle
-     * @return the access time
-     */
-    public native long getAccessTime(long statPtr);
-
-    /**
-     * get the ModifyTime
-     *
-     * @param statPtr stat ptr for receive rgw handle
-     * @return the modify time
-     */
-    public native long getModifyTime(long statPtr);
-
-    /**
-     * get the mode
-     *
-     * @param statPtr stat ptr for receive rgw handle
-     * @return the mode of the statPtr
-     */
-    public native int getMode(long statPtr);
+    public native long rgwMkdir(long rgwFsPtr, long fileHandlePtr, String name, int mode, long[] stat)
+            throws CephRgwException;
 }
-
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Glob expansion over a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.GlobExpander;
+import org.apache.hadoop.fs.GlobFilter;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Expands a glob pattern level by level, with the semantics of the Hadoop Globber.
+ * A run of literal components is resolved by a single lookup of the whole run, which starts from the
+ * deepest directory handle already known. Only wildcard components list directories: all the candidate
+ * directories of one level are listed by concurrent tasks on the list pool, and each name is checked
+ * against the literal prefix of the component before the pattern itself.
+ */
+class CephRgwGlobber {
+    private static final String WILDCARD_CHARS = "*?[{\\";
+
+    private final CephRgwFileSystem fileSystem;
+    private final ForkJoinPool pool;
+    private final Path pathPattern;
+    private final PathFilter filter;
+
+    CephRgwGlobber(CephRgwFileSystem fileSystem, ForkJoinPool pool, Path pathPattern, PathFilter filter) {
+        this.fileSystem = fileSystem;
+        this.pool = pool;
+        this.pathPattern = pathPattern;
+        this.filter = filter;
+    }
+
+    /**
+     * Expand the pattern.
+     *
+     * @return the matches sorted by path, or null if a pattern without wildcards matches nothing
+     * @throws IOException failure
+     */
+    FileStatus[] glob() throws IOException {
+        Path root = fileSystem.makeQualified(new Path(Path.SEPARATOR));
+        List<String> flattenedPatterns = GlobExpander.expand(pathPattern.toUri().getPath());
+        List<FileStatus> results = new ArrayList<>();
+        boolean sawWildcard = false;
+        for (String flatPattern : flattenedPatterns) {
+            Path absPattern = fileSystem.makeQualified(new Path(flatPattern.isEmpty() ? Path.CUR_DIR : flatPattern));
+            List<String> components = getPathComponents(absPattern.toUri().getPath());
+            // Candidates carry only a path while literal components are appended, statuses once a level is listed.
+            List<FileStatus> candidates = new ArrayList<>();
+            candidates.add(new FileStatus(0, true, 0, 0, 0, root));
+            boolean resolved = false;
+            for (int idx = 0; idx < components.size(); idx++) {
+                GlobFilter globFilter = new GlobFilter(components.get(idx));
+                if (!globFilter.hasPattern()) {
+                    String component = unescapePathComponent(components.get(idx));
+                    for (FileStatus candidate : candidates) {
+                        candidate.setPath(new Path(candidate.getPath(), component));
+                    }
+                    resolved = false;
+                    continue;
+                }
+                sawWildcard = true;
+                candidates = expandLevel(candidates, globFilter, literalPrefix(components.get(idx)),
+                        idx == components.size() - 1);
+                resolved = true;
+                if (candidates.isEmpty()) {
+                    break;
+                }
+            }
+            if (!resolved) {
+                candidates = resolve(candidates);
+            }
+            for (FileStatus status : candidates) {
+                if (filter.accept(status.getPath())) {
+                    results.add(status);
+                }
+            }
+        }
+        if (!sawWildcard && results.isEmpty() && flattenedPatterns.size() <= 1) {
+            return null;
+        }
+        FileStatus[] ret = results.toArray(new FileStatus[0]);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private List<FileStatus> resolve(List<FileStatus> candidates) throws IOException {
+        List<FileStatus> ret = new ArrayList<>(candidates.size());
+        for (FileStatus candidate : candidates) {
+            try {
+                ret.add(fileSystem.getFileStatus(candidate.getPath()));
+            } catch (FileNotFoundException e) {
+                // No match.
+            }
+        }
+        return ret;
+    }
+
+    private List<FileStatus> expandLevel(List<FileStatus> candidates, GlobFilter globFilter, String prefix,
+            boolean isLast) throws IOException {
+        List<ListTask> tasks = new ArrayList<>(candidates.size());
+        for (FileStatus candidate : candidates) {
+            tasks.add(new ListTask(candidate.getPath(), globFilter, prefix, isLast));
+        }
+        try {
+            pool.invoke(new RecursiveTask<Void>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected Void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                    return null;
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        List<FileStatus> ret = new ArrayList<>();
+        for (ListTask task : tasks) {
+            ret.addAll(task.getRawResult());
+        }
+        return ret;
+    }
+
+    private static String literalPrefix(String component) {
+        int end = 0;
+        while (end < component.length() && WILDCARD_CHARS.indexOf(component.charAt(end)) < 0) {
+            end++;
+        }
+        return component.substring(0, end);
+    }
+
+    private static List<String> getPathComponents(String path) {
+        List<String> ret = new ArrayList<>();
+        for (String component : path.split(Path.SEPARATOR)) {
+            if (!component.isEmpty()) {
+                ret.add(component);
+            }
+        }
+        return ret;
+    }
+
+    private static String unescapePathComponent(String name) {
+        return name.replaceAll("\\\\(.)", "$1");
+    }
+
+    /**
+     * Lists one candidate directory and keeps the children that match the component.
+     */
+    private class ListTask extends RecursiveTask<List<FileStatus>> {
+        private static final long serialVersionUID = 1L;
+        private final Path dirPath;
+        private final GlobFilter globFilter;
+        private final String prefix;
+        private final boolean isLast;
+
+        ListTask(Path dirPath, GlobFilter globFilter, String prefix, boolean isLast) {
+            this.dirPath = dirPath;
+            this.globFilter = globFilter;
+            this.prefix = prefix;
+            this.isLast = isLast;
+        }
+
+        @Override
+        protected List<FileStatus> compute() {
+            List<FileStatus> ret = new ArrayList<>();
+            try (LibRGWFH fileHandle = fileSystem.getFileHandleByAbsPath(dirPath, CephRgwFileSystem.LOOKUP_FLAG_NONE,
+                    true, false)) {
+                if (!fileHandle.getFileStatus().isDirectory()) {
+                    return ret;
+                }
+                try (CephRgwDirectoryLister iter = fileSystem.listDirectory(dirPath, fileHandle)) {
+                    while (iter.hasNext()) {
+                        FileStatus child = iter.next();
+                        String name = child.getPath().getName();
+                        if (!name.startsWith(prefix) || (!isLast && !child.isDirectory())) {
+                            continue;
+                        }
+                        if (globFilter.accept(child.getPath())) {
+                            ret.add(child);
+                        }
+                    }
+                }
+            } catch (FileNotFoundException e) {
+                // No match below a missing directory.
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return ret;
+        }
+    }
+}
@@ -20,33 +20,93 @@
  */
 package org.apache.hadoop.fs.cephrgw;
 
+import org.apache.hadoop.fs.ByteBufferReadable;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathIsDirectoryException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 /*
 * Input stream for librgw native call.
 */
 
-public class CephRgwInputStream extends FSInputStream {
+public class CephRgwInputStream extends FSInputStream implements ByteBufferReadable {
     private LibRGWFH fhPtr;
     private long position = 0;
     private final long fileSize;
     private CephRgwFileSystem fileSystem;
+    private final int bufferSize;
+    private ByteBuffer buffer;
+    private boolean bufferWaited = false;
+    private long bufferStart = 0;
+    private int bufferLength = 0;
+    private final int readAheadDepth;
+    private final ArrayDeque<RangeRead> readAheadQueue = new ArrayDeque<>();
+    private long readAheadNextPos = -1;
+    private long lastFillEnd = 0;
+    private long lastUseNanos = System.nanoTime();
+    private final Set<CompletableFuture<Void>> pendingVectoredReads = ConcurrentHashMap.newKeySet();
+    // Every read-ahead block that may still call librgw, including blocks already dropped from the queue.
+    private final Set<RangeRead> pendingReadAheads = ConcurrentHashMap.newKeySet();
+    // The handle may be shared through the handle cache, so the stream must release its reference only once.
+    private final AtomicBoolean closed = new AtomicBoolean();
     private static final Logger LOGGER = LoggerFactory.getLogger(CephRgwInputStream.class);
 
     public CephRgwInputStream(CephRgwFileSystem fileSystem, Path path) throws IOException {
+        this(fileSystem, path, 0, 0);
+    }
+
+    /**
+     * Create an input stream that keeps up to bufferSize bytes of the file in memory.
+     * When readAheadDepth is positive and the file is read sequentially, up to readAheadDepth further
+     * blocks of bufferSize bytes are fetched in the background.
+     * Buffers are borrowed from the buffer pool of the file system, the stream reads unbuffered while
+     * the pool has no memory for it.
+     *
+     * @param fileSystem the owner file system
+     * @param path the absolute file path
+     * @param bufferSize the size of the read buffer, 0 for unbuffered reads
+     * @param readAheadDepth the number of blocks to keep in flight, 0 to disable read-ahead
+     * @throws IOException failure
+     */
+    CephRgwInputStream(CephRgwFileSystem fileSystem, Path path, int bufferSize, int readAheadDepth)
+            throws IOException {
         this.fileSystem = fileSystem;
+        this.readAheadDepth = bufferSize > 0 ? readAheadDepth : 0;
         fhPtr = fileSystem.getFileHandleByAbsPath(path, CephRgwFileSystem.LOOKUP_FLAG_FILE, true, true);
+        // librgw may resolve a file lookup to a directory, whether the handle came from librgw or a cache.
+        if (fhPtr.getFileStatus().isDirectory()) {
+            fhPtr.close();
+            throw new PathIsDirectoryException("Error:Path is directory.");
+        }
         this.fileSize = fhPtr.getFileStatus().getLen();
+        this.bufferSize = (int) Math.min(fileSize, bufferSize);
     }
 
     @Override
-    public void seek(long pos) throws IOException {
+    public synchronized void seek(long pos) throws IOException {
+        lastUseNanos = System.nanoTime();
         this.position = pos;
         if (this.position > fileSize) {
             this.position = fileSize;
@@ -54,10 +114,13 @@ public class CephRgwInputStream extends FSInputStream {
         if (this.position < 0) {
             this.position = 0;
         }
+        if (!readAheadQueue.isEmpty() && (position < bufferStart || position >= readAheadNextPos)) {
+            cancelReadAhead(false);
+        }
     }
 
     @Override
-    public long getPos() throws IOException {
+    public synchronized long getPos() throws IOException {
         return position;
     }
 
@@ -71,7 +134,35 @@ public class CephRgwInputStream extends FSInputStream {
     }
 
     @Override
-    public int read() throws IOException {
+    public synchronized long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long oldPosition = position;
+        seek(position + n);
+        return position - oldPosition;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        return (int) Math.min(fileSize - position, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        lastUseNanos = System.nanoTime();
+        if (position >= fileSize) {
+            return -1;
+        }
+        if (bufferedBytes() > 0 || acquireBuffer()) {
+            if (bufferedBytes() == 0) {
+                fillBuffer();
+            }
+            int ret = buffer.get((int) (position - bufferStart)) & 0xff;
+            position++;
+            releaseBuffersAtEof();
+            return ret;
+        }
         byte[] buf = new byte[1];
         int ret;
         do {
@@ -81,10 +172,61 @@ public class CephRgwInputStream extends FSInputStream {
     }
 
     @Override
-    public int read(byte[] buf, int off, int len) throws IOException {
-        int ret = read(position, buf, off, len);
+    public synchronized int read(byte[] buf, int off, int len) throws IOException {
+        lastUseNanos = System.nanoTime();
+        if (len == 0) {
+            return 0;
+        }
+        int ret;
+        int buffered = bufferedBytes();
+        if (buffered > 0) {
+            ret = Math.min(buffered, len);
+            buffer.position((int) (position - bufferStart));
+            buffer.get(buf, off, ret);
+        } else if (useBuffer(len)) {
+            fillBuffer();
+            ret = Math.min(bufferedBytes(), len);
+            buffer.position((int) (position - bufferStart));
+            buffer.get(buf, off, ret);
+        } else {
+            ret = read(position, buf, off, len);
+        }
         if (ret >= 0) {
             position += ret;
+            releaseBuffersAtEof();
+        }
+        return ret;
+    }
+
+    /**
+     * Read into a ByteBuffer. Direct buffers are filled by librgw without an intermediate copy.
+     *
+     * @param buf the destination buffer
+     * @return the number of bytes read, -1 at the end of the file
+     * @throws IOException failure
+     */
+    @Override
+    public synchronized int read(ByteBuffer buf) throws IOException {
+        lastUseNanos = System.nanoTime();
+        int len = buf.remaining();
+        if (len == 0) {
+            return 0;
+        }
+        int ret;
+        int buffered = bufferedBytes();
+        if (buffered > 0) {
+            ret = Math.min(buffered, len);
+            copyBuffered(buf, ret);
+        } else if (useBuffer(len)) {
+            fillBuffer();
+            ret = Math.min(bufferedBytes(), len);
+            copyBuffered(buf, ret);
+        } else {
+            ret = read(position, buf);
+        }
+        if (ret >= 0) {
+            position += ret;
+            releaseBuffersAtEof();
         }
         return ret;
     }
@@ -95,22 +237,233 @@ public class CephRgwInputStream extends FSInputStream {
     }
 
     void doClose() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        cancelReadAhead(true);
+        for (RangeRead block : pendingReadAheads) {
+            if (!block.cancel()) {
+                block.result.handle((ret, t) -> ret).join();
+            }
+        }
+        for (CompletableFuture<Void> pending : pendingVectoredReads) {
+            pending.join();
+        }
         fhPtr.close();
+        fileSystem.getBufferPool().release(buffer);
+        buffer = null;
+        bufferLength = 0;
+        fileSystem.untrackBufferedStream(this);
         super.close();
     }
 
+    /**
+     * Give the buffers back to the pool if the stream has not been used for maxIdleMs. Called by the buffer
+     * sweeper, so that a stream left open, or dropped without close, does not hold pool memory for good.
+     * A later read borrows a buffer again.
+     *
+     * @param maxIdleMs how long the stream may sit idle
+     */
+    synchronized void releaseIdleBuffers(long maxIdleMs) {
+        if (System.nanoTime() - lastUseNanos < TimeUnit.MILLISECONDS.toNanos(maxIdleMs)) {
+            return;
+        }
+        try {
+            releaseBuffers();
+        } catch (IOException e) {
+            LOGGER.debug("failed to release the buffers of an idle stream", e);
+        }
+    }
+
+    private void releaseBuffersAtEof() throws IOException {
+        // Nothing is left to buffer, so the memory goes back to the pool before close.
+        if (position >= fileSize && (buffer != null || !readAheadQueue.isEmpty())) {
+            releaseBuffers();
+        }
+    }
+
+    private void releaseBuffers() throws IOException {
+        cancelReadAhead(false);
+        fileSystem.getBufferPool().release(buffer);
+        buffer = null;
+        bufferLength = 0;
+        fileSystem.untrackBufferedStream(this);
+    }
+
     @Override
     public int read(long position, byte[] buffer, int offset, int length) throws IOException {
         if (position >= fileSize) {
             return -1;
         }
+        int expectedReadLength = (int) Math.min(fileSize - position, length);
+        if (fileSystem.isParallelRead(expectedReadLength)) {
+            return readParallel(position, buffer, offset, null, expectedReadLength);
+        }
+        return readOnce(position, buffer, offset, expectedReadLength);
+    }
+
+    /**
+     * Positioned read into a ByteBuffer, the stream position is left unchanged.
+     *
+     * @param position position of file
+     * @param buf the destination buffer, its position is advanced by the bytes read
+     * @return the number of bytes read, -1 at the end of the file
+     * @throws IOException failure
+     */
+    public int read(long position, ByteBuffer buf) throws IOException {
+        if (position >= fileSize) {
+            return -1;
+        }
+        int length = (int) Math.min(fileSize - position, buf.remaining());
+        if (length == 0) {
+            return 0;
+        }
+        int ret;
+        if (buf.isDirect()) {
+            if (fileSystem.isParallelRead(length)) {
+                ret = readParallel(position, null, 0, slice(buf, 0, length), length);
+                buf.position(buf.position() + ret);
+                return ret;
+            }
+            return readOnce(position, buf, length);
+        } else if (buf.hasArray()) {
+            ret = read(position, buf.array(), buf.arrayOffset() + buf.position(), length);
+        } else {
+            byte[] tmp = new byte[length];
+            ret = read(position, tmp, 0, length);
+            if (ret > 0) {
+                buf.put(tmp, 0, ret);
+            }
+            return ret;
+        }
+        if (ret > 0) {
+            buf.position(buf.position() + ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Read a list of ranges asynchronously. Ranges closer than fs.ceph.rgw.vectored.read.min.seek.size are
+     * merged into one librgw read of at most fs.ceph.rgw.vectored.read.max.merged.size bytes, the merged reads
+     * run in parallel on the io executor and each range receives a slice of its merged buffer.
+     * The stream position is left unchanged.
+     *
+     * @param ranges the ranges to read, they must not overlap
+     * @param allocate allocator for the read buffers, direct buffers are filled without an intermediate copy
+     * @throws IOException if the ranges are invalid
+     */
+    public void readVectored(List<? extends CephRgwFileRange> ranges, IntFunction<ByteBuffer> allocate)
+            throws IOException {
+        List<CephRgwFileRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(CephRgwFileRange::getOffset));
+        for (int i = 1; i < sorted.size(); i++) {
+            CephRgwFileRange prev = sorted.get(i - 1);
+            if (prev.getOffset() + prev.getLength() > sorted.get(i).getOffset()) {
+                throw new IllegalArgumentException("Overlapping ranges " + prev + " and " + sorted.get(i));
+            }
+        }
+        int mergedReads = 0;
+        int first = 0;
+        while (first < sorted.size()) {
+            CephRgwFileRange head = sorted.get(first);
+            long end = head.getOffset() + head.getLength();
+            int last = first + 1;
+            while (last < sorted.size()) {
+                CephRgwFileRange next = sorted.get(last);
+                long nextEnd = next.getOffset() + next.getLength();
+                if (next.getOffset() - end > fileSystem.getVectoredReadMinSeek()
+                        || nextEnd - head.getOffset() > fileSystem.getVectoredReadMaxMerged()) {
+                    break;
+                }
+                end = nextEnd;
+                last++;
+            }
+            List<CephRgwFileRange> children = sorted.subList(first, last);
+            long start = head.getOffset();
+            long mergedEnd = end;
+            CompletableFuture<Void> pending = new CompletableFuture<>();
+            pendingVectoredReads.add(pending);
+            try {
+                fileSystem.getIoExecutor().execute(() -> {
+                    try {
+                        readMergedRange(start, mergedEnd, children, allocate);
+                    } finally {
+                        pendingVectoredReads.remove(pending);
+                        pending.complete(null);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pendingVectoredReads.remove(pending);
+                IOException failure = new IOException("vectored read rejected, file system is closed.", e);
+                children.forEach(range -> range.getData().completeExceptionally(failure));
+            }
+            mergedReads++;
+            first = last;
+        }
+        LOGGER.debug("vectored read of {} ranges issued as {} reads", sorted.size(), mergedReads);
+    }
+
+    private void readMergedRange(long start, long end, List<CephRgwFileRange> children,
+            IntFunction<ByteBuffer> allocate) {
+        try {
+            if (end > fileSize) {
+                throw new EOFException(String.format(Locale.ROOT,
+                        "read range [%d,%d) is past the end of file of size %d.", start, end, fileSize));
+            }
+            ByteBuffer buf = allocate.apply((int) (end - start));
+            int total = 0;
+            while (buf.hasRemaining()) {
+                int ret = read(start + total, buf);
+                if (ret <= 0) {
+                    throw new EOFException(String.format(Locale.ROOT,
+                            "read file from position:%d returned %d before the end of file.", start + total, ret));
+                }
+                total += ret;
+            }
+            buf.flip();
+            for (CephRgwFileRange range : children) {
+                ByteBuffer slice = buf.duplicate();
+                slice.position((int) (range.getOffset() - start));
+                slice.limit(slice.position() + range.getLength());
+                range.getData().complete(slice.slice());
+            }
+        } catch (Throwable t) {
+            children.forEach(range -> range.getData().completeExceptionally(t));
+        }
+    }
+
+    private int readOnce(long position, byte[] buffer, int offset, int length) throws IOException {
+        try {
+            int ret;
+            long start = System.nanoTime();
+            try {
+                ret = fileSystem.rgwRead(fhPtr.getFsPtr(), fhPtr.getFhPtr(), position, length, buffer, offset);
+            } finally {
+                fileSystem.getNativeStatistics().record(CephRgwStorageStatistics.Op.READ, start);
+            }
+            if (ret > 0) {
+                fileSystem.getCephRgwStatistics().incrementBytesRead(ret);
+            }
+            return ret;
+        } catch (CephRgwException e) {
+            throw new IOException(
+                    String.format(Locale.ROOT, "read file from position:%d, length:%d failed.", position, length), e);
+        }
+    }
+
+    private int readOnce(long position, ByteBuffer buf, int length) throws IOException {
         try {
-            int expectedReadLength = (int) Math.min(fileSize - position, length);
-            int ret =
-                    fileSystem.rgwRead(
-                            fileSystem.getRgwFsPtr(), fhPtr.getFhPtr(), position, expectedReadLength, buffer, offset);
+            int ret;
+            long start = System.nanoTime();
+            try {
+                ret = fileSystem.rgwReadDirect(
+                        fhPtr.getFsPtr(), fhPtr.getFhPtr(), position, length, buf, buf.position());
+            } finally {
+                fileSystem.getNativeStatistics().record(CephRgwStorageStatistics.Op.READ, start);
+            }
             if (ret > 0) {
                 fileSystem.getCephRgwStatistics().incrementBytesRead(ret);
+                buf.position(buf.position() + ret);
             }
             return ret;
         } catch (CephRgwException e) {
@@ -118,4 +471,339 @@ public class CephRgwInputStream extends FSInputStream {
                     String.format(Locale.ROOT, "read file from position:%d, length:%d failed.", position, length), e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Split a large read into sub-ranges aligned to the parallel read chunk size, read them concurrently
+     * on the io executor and return the number of contiguous bytes read from position.
+     */
+    private int readParallel(long position, byte[] buf, int offset, ByteBuffer target, int length)
+            throws IOException {
+        long chunk = fileSystem.getParallelReadChunkSize(length);
+        List<RangeRead> parts = new ArrayList<>();
+        long start = position;
+        long end = position + length;
+        while (start < end) {
+            long partEnd = Math.min(end, (start / chunk + 1) * chunk);
+            int partOffset = (int) (start - position);
+            int partLength = (int) (partEnd - start);
+            parts.add(target == null
+                    ? new RangeRead(start, buf, offset + partOffset, partLength)
+                    : new RangeRead(start, slice(target, partOffset, partLength)));
+            start = partEnd;
+        }
+        for (int i = 1; i < parts.size(); i++) {
+            try {
+                fileSystem.getIoExecutor().execute(parts.get(i));
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("parallel read rejected at position:{}, reading in caller", parts.get(i).start, e);
+            }
+        }
+        int total = 0;
+        boolean contiguous = true;
+        IOException failure = null;
+        // Every part is awaited, even after a failure, so that no read is still writing once this returns.
+        for (RangeRead part : parts) {
+            try {
+                int ret = part.join();
+                if (contiguous) {
+                    total += Math.max(ret, 0);
+                    contiguous = ret == part.length;
+                }
+            } catch (IOException e) {
+                contiguous = false;
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return total;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+        ByteBuffer ret = buf.duplicate();
+        ret.position(buf.position() + offset);
+        ret.limit(buf.position() + offset + length);
+        return ret;
+    }
+
+    private int bufferedBytes() {
+        if (bufferLength == 0 || position < bufferStart || position >= bufferStart + bufferLength) {
+            return 0;
+        }
+        return (int) (bufferStart + bufferLength - position);
+    }
+
+    /**
+     * Whether a read of len bytes goes through the stream buffer. A read of at least bufferSize bytes goes
+     * straight to librgw unless read-ahead has already fetched the block at the current position, that
+     * block is drained first and the rest of the queue is dropped when the read bypasses it.
+     */
+    private boolean useBuffer(int len) throws IOException {
+        if (position >= fileSize) {
+            return false;
+        }
+        if (len < bufferSize) {
+            return acquireBuffer();
+        }
+        RangeRead head = readAheadQueue.peekFirst();
+        if (head != null && head.start <= position && acquireBuffer()) {
+            return true;
+        }
+        if (!readAheadQueue.isEmpty()) {
+            cancelReadAhead(false);
+        }
+        return false;
+    }
+
+    /**
+     * Borrow the stream buffer from the pool. Only the first attempt waits for memory, later attempts
+     * give up at once so that an exhausted pool degrades to unbuffered reads instead of stalls.
+     */
+    private boolean acquireBuffer() throws IOException {
+        if (buffer != null) {
+            return true;
+        }
+        if (bufferSize <= 0) {
+            return false;
+        }
+        buffer = fileSystem.getBufferPool().acquire(bufferSize, bufferWaited ? 0 : fileSystem.getBufferPoolWaitMs());
+        if (buffer == null && !bufferWaited) {
+            LOGGER.debug("no memory for a {} byte read buffer, reading unbuffered. {}", bufferSize,
+                    fileSystem.getBufferPool());
+        }
+        bufferWaited = true;
+        if (buffer != null) {
+            fileSystem.trackBufferedStream(this);
+        }
+        return buffer != null;
+    }
+
+    private void copyBuffered(ByteBuffer dst, int length) {
+        int start = (int) (position - bufferStart);
+        buffer.limit(start + length);
+        buffer.position(start);
+        dst.put(buffer);
+        buffer.limit(bufferLength);
+    }
+
+    private void fillBuffer() throws IOException {
+        if (readAheadDepth > 0 && takeReadAheadBlock()) {
+            scheduleReadAhead();
+            return;
+        }
+        // A refill that starts where the previous one ended is treated as sequential access.
+        boolean sequential = position == lastFillEnd;
+        cancelReadAhead(false);
+        bufferLength = 0;
+        buffer.clear();
+        buffer.limit(bufferSize);
+        int ret = read(position, buffer);
+        if (ret <= 0) {
+            throw new IOException(String.format(Locale.ROOT,
+                    "read file from position:%d returned %d before the end of file.", position, ret));
+        }
+        buffer.limit(ret);
+        bufferStart = position;
+        bufferLength = ret;
+        lastFillEnd = bufferStart + bufferLength;
+        if (readAheadDepth > 0 && sequential) {
+            readAheadNextPos = lastFillEnd;
+            scheduleReadAhead();
+        }
+    }
+
+    private boolean takeReadAheadBlock() throws IOException {
+        while (!readAheadQueue.isEmpty()) {
+            RangeRead block = readAheadQueue.peekFirst();
+            if (block.start > position) {
+                return false;
+            }
+            readAheadQueue.pollFirst();
+            if (block.start + block.length <= position) {
+                dropBlock(block);
+                continue;
+            }
+            int ret = block.joinQuietly();
+            if (ret <= position - block.start) {
+                // The background read failed or came back short, fall back to a synchronous read.
+                dropBlock(block);
+                cancelReadAhead(false);
+                return false;
+            }
+            fileSystem.getBufferPool().release(buffer);
+            buffer = block.target;
+            buffer.limit(ret);
+            bufferStart = block.start;
+            bufferLength = ret;
+            lastFillEnd = bufferStart + bufferLength;
+            return true;
+        }
+        return false;
+    }
+
+    private void scheduleReadAhead() throws IOException {
+        while (readAheadQueue.size() < readAheadDepth && readAheadNextPos < fileSize) {
+            int length = (int) Math.min(bufferSize, fileSize - readAheadNextPos);
+            // Read-ahead never waits for memory, an exhausted pool just shortens the pipeline.
+            // A block becomes the stream buffer when it is consumed, so even the tail block is full size.
+            ByteBuffer data = fileSystem.getBufferPool().acquire(bufferSize, 0);
+            if (data == null) {
+                return;
+            }
+            data.limit(length);
+            RangeRead block = new RangeRead(readAheadNextPos, data);
+            pendingReadAheads.add(block);
+            block.result.whenComplete((ret, t) -> pendingReadAheads.remove(block));
+            try {
+                fileSystem.getIoExecutor().execute(block);
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("read ahead rejected at position:{}", readAheadNextPos, e);
+                pendingReadAheads.remove(block);
+                fileSystem.getBufferPool().release(data);
+                return;
+            }
+            readAheadQueue.add(block);
+            readAheadNextPos += length;
+        }
+    }
+
+    private void cancelReadAhead(boolean waitRunning) throws IOException {
+        for (RangeRead block : readAheadQueue) {
+            if (!block.cancel() && waitRunning) {
+                block.joinQuietly();
+            }
+            dropBlock(block);
+        }
+        readAheadQueue.clear();
+        readAheadNextPos = -1;
+    }
+
+    private void dropBlock(RangeRead block) {
+        // A block that is still being read keeps its buffer until the read completes.
+        if (block.cancel()) {
+            pendingReadAheads.remove(block);
+            fileSystem.getBufferPool().release(block.target);
+        } else {
+            block.result.whenComplete((ret, t) -> fileSystem.getBufferPool().release(block.target));
+        }
+    }
+
+    private int readRange(long pos, byte[] data, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int ret = readOnce(pos + total, data, offset + total, length - total);
+            if (ret <= 0) {
+                break;
+            }
+            total += ret;
+        }
+        return total;
+    }
+
+    private int readRange(long pos, ByteBuffer buf) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int ret;
+            if (buf.isDirect()) {
+                ret = readOnce(pos + total, buf, buf.remaining());
+            } else {
+                // rgwReadDirect only takes direct buffers, a heap buffer is read through its array.
+                ret = readOnce(pos + total, buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                if (ret > 0) {
+                    buf.position(buf.position() + ret);
+                }
+            }
+            if (ret <= 0) {
+                break;
+            }
+            total += ret;
+        }
+        return total;
+    }
+
+    /**
+     * A range of the file read on the io executor, into either a byte array or a ByteBuffer.
+     * A range the executor has not started yet is read by the thread that joins it.
+     */
+    private class RangeRead implements Runnable {
+        private static final int STATE_NEW = 0;
+        private static final int STATE_RUNNING = 1;
+        private static final int STATE_CANCELLED = 2;
+
+        private final long start;
+        private final int length;
+        private final byte[] data;
+        private final int offset;
+        private final ByteBuffer target;
+        private final AtomicInteger state = new AtomicInteger(STATE_NEW);
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        RangeRead(long start, byte[] data, int offset, int length) {
+            this.start = start;
+            this.length = length;
+            this.data = data;
+            this.offset = offset;
+            this.target = null;
+        }
+
+        RangeRead(long start, ByteBuffer target) {
+            this.start = start;
+            this.length = target.remaining();
+            this.data = null;
+            this.offset = 0;
+            this.target = target;
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(STATE_NEW, STATE_RUNNING)) {
+                return;
+            }
+            try {
+                result.complete(target == null ? readRange(start, data, offset, length) : readRange(start, target));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+
+        /**
+         * Cancel the range if it has not started yet.
+         *
+         * @return true if the read will never run
+         */
+        boolean cancel() {
+            return state.get() == STATE_CANCELLED || state.compareAndSet(STATE_NEW, STATE_CANCELLED);
+        }
+
+        int join() throws IOException {
+            run();
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for read at position:" + start);
+            } catch (CancellationException e) {
+                throw new IOException("read at position:" + start + " was cancelled.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("read at position:" + start + " failed.", e.getCause());
+            }
+        }
+
+        int joinQuietly() throws InterruptedIOException {
+            try {
+                return join();
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                LOGGER.debug("read ahead at position:{} failed", start, e);
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Latency histogram of librgw calls.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear latency histogram in microseconds, in the manner of HdrHistogram: every power of two is
+ * split into 2^SUB_BITS buckets, so a recorded value is off by at most 1 / 2^SUB_BITS. Recording is
+ * lock free, the count and total go to striped counters and the buckets to an atomic array.
+ */
+class CephRgwLatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Values are capped at 2^MAX_EXP - 1 microseconds, about 19 hours.
+    private static final int MAX_EXP = 36;
+    private static final long MAX_VALUE = (1L << MAX_EXP) - 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray((MAX_EXP - SUB_BITS + 1) * SUB_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    void record(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        totalMicros.add(value);
+        maxMicros.accumulate(value);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getTotalMicros() {
+        return totalMicros.sum();
+    }
+
+    long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * Get a percentile.
+     *
+     * @param percentile between 0 and 100
+     * @return the highest value of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    long getPercentileMicros(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestOf(i), getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalMicros.reset();
+        maxMicros.reset();
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long highestOf(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exp = index / SUB_COUNT + SUB_BITS - 1;
+        long sub = index % SUB_COUNT;
+        long lowest = (SUB_COUNT + sub) << (exp - SUB_BITS);
+        return lowest + (1L << (exp - SUB_BITS)) - 1;
+    }
+}
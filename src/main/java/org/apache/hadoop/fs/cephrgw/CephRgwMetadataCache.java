@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: FileStatus cache of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of FileStatus by absolute path, with a time to live on every entry.
+ * A missing path may be remembered as a negative entry, which hides a path created by another process
+ * until the entry expires. Entries are copied in and out because FileStatus is mutable.
+ */
+class CephRgwMetadataCache {
+    private final long ttlMs;
+    private final boolean negative;
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize the most entries to keep
+     * @param ttlMs how long an entry stays valid, 0 disables the cache
+     * @param negative whether missing paths are cached
+     */
+    CephRgwMetadataCache(final int maxSize, long ttlMs, boolean negative) {
+        this.ttlMs = ttlMs;
+        this.negative = negative;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return ttlMs > 0;
+    }
+
+    /**
+     * Look up a path.
+     *
+     * @param path the absolute path
+     * @return null on a miss, an entry whose status is null if the path is known to be missing
+     */
+    synchronized Entry get(Path path) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = path.toString();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void put(Path path, FileStatus status) throws IOException {
+        if (isEnabled()) {
+            entries.put(path.toString(), new Entry(new FileStatus(status), System.currentTimeMillis() + ttlMs));
+        }
+    }
+
+    synchronized void putNegative(Path path) {
+        if (isEnabled() && negative) {
+            entries.put(path.toString(), new Entry(null, System.currentTimeMillis() + ttlMs));
+        }
+    }
+
+    synchronized void invalidate(Path path) {
+        entries.remove(path.toString());
+    }
+
+    /**
+     * Drop a path and everything below it.
+     *
+     * @param path the absolute path
+     */
+    synchronized void invalidateTree(Path path) {
+        String key = path.toString();
+        String prefix = key.endsWith("/") ? key : key + "/";
+        Iterator<String> iter = entries.keySet().iterator();
+        while (iter.hasNext()) {
+            String next = iter.next();
+            if (next.equals(key) || next.startsWith(prefix)) {
+                iter.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * A cached status, or a negative entry if the status is null.
+     */
+    static class Entry {
+        private final FileStatus status;
+        private final long expireAt;
+
+        Entry(FileStatus status, long expireAt) {
+            this.status = status;
+            this.expireAt = expireAt;
+        }
+
+        boolean isNegative() {
+            return status == null;
+        }
+
+        FileStatus getStatus() throws IOException {
+            return new FileStatus(status);
+        }
+    }
+}
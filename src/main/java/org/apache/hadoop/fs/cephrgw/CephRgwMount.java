@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: One librgw mount of a bucket with the handle caches that belong to it.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A librgw mount and the handles opened through it.
+ * Handles are only valid on the mount that opened them, so every mount has its own root handle and
+ * handle caches, and a handle carries its mount.
+ */
+class CephRgwMount {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CephRgwMount.class);
+    private final CephRgwFileSystem fileSystem;
+    private final int index;
+    private final long fsPtr;
+    private final CephRgwFileHandleCache handleCache;
+    private final CephRgwFileHandleCache dirHandleCache;
+    private LibRGWFH rootFH;
+
+    CephRgwMount(CephRgwFileSystem fileSystem, int index, long fsPtr, CephRgwFileHandleCache handleCache,
+            CephRgwFileHandleCache dirHandleCache) {
+        this.fileSystem = fileSystem;
+        this.index = index;
+        this.fsPtr = fsPtr;
+        this.handleCache = handleCache;
+        this.dirHandleCache = dirHandleCache;
+    }
+
+    CephRgwFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    long getFsPtr() {
+        return fsPtr;
+    }
+
+    LibRGWFH getRootFH() {
+        return rootFH;
+    }
+
+    /**
+     * Take over the handle of the bucket, it stays open until the mount is closed.
+     *
+     * @param fhPtr the native handle
+     * @param fileStatus the status of the bucket
+     */
+    void setRootFH(long fhPtr, FileStatus fileStatus) {
+        rootFH = new LibRGWFH(this, fhPtr, fileStatus);
+    }
+
+    /**
+     * Open handles of files, only used when fs.ceph.rgw.ensure-readonly promises that files do not change.
+     *
+     * @return the cache
+     */
+    CephRgwFileHandleCache getHandleCache() {
+        return handleCache;
+    }
+
+    /**
+     * Handles of directories seen by lookups, later lookups below them start from the deepest one.
+     *
+     * @return the cache
+     */
+    CephRgwFileHandleCache getDirHandleCache() {
+        return dirHandleCache;
+    }
+
+    /**
+     * Close the cached handles and the root handle, then unmount.
+     */
+    void close() {
+        LOGGER.debug("Closing mount {}: {}, {}", index, handleCache, dirHandleCache);
+        handleCache.clear();
+        dirHandleCache.clear();
+        if (rootFH != null) {
+            rootFH.doClose();
+        }
+        fileSystem.rgwUmount(fsPtr);
+    }
+
+    @Override
+    public String toString() {
+        return "CephRgwMount{index=" + index + '}';
+    }
+}
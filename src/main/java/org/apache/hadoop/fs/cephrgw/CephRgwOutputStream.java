@@ -20,25 +20,31 @@
  */
 package org.apache.hadoop.fs.cephrgw;
 
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathIsDirectoryException;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Locale;
 
 public class CephRgwOutputStream extends OutputStream {
     private transient long currPos = 0;
     private transient final LibRGWFH fhPtr;
     private transient final CephRgwFileSystem fileSystem;
+    private transient final Path path;
 
     CephRgwOutputStream(CephRgwFileSystem fileSystem, Path path) throws IOException {
         this.fileSystem = fileSystem;
-        fhPtr = fileSystem.getFileHandleByAbsPath(path,
-                CephRgwFileSystem.LOOKUP_FLAG_CREATE | CephRgwFileSystem.LOOKUP_FLAG_FILE,
-                false, false);
+        this.path = path;
+        // No type flag, so that an existing directory is found instead of shadowed by a new file.
+        fhPtr = fileSystem.getFileHandleByAbsPath(path, CephRgwFileSystem.LOOKUP_FLAG_CREATE, false, false);
+        if (fhPtr.getFileStatus().isDirectory()) {
+            fhPtr.close();
+            throw new PathIsDirectoryException(path.toString());
+        }
         try {
-            fileSystem.rgwOpen(fileSystem.getRgwFsPtr(), fhPtr.getFhPtr());
+            fileSystem.rgwOpen(fhPtr.getFsPtr(), fhPtr.getFhPtr());
         } catch (CephRgwException e) {
             fhPtr.close();
             throw new IOException(String.format(Locale.ROOT, "open file %s failed.", path), e);
@@ -52,9 +58,46 @@ public class CephRgwOutputStream extends OutputStream {
     @Override
     public void write(byte[] buf, int off, int len) throws IOException {
         try {
-            fileSystem.rgwWrite(fileSystem.getRgwFsPtr(), fhPtr.getFhPtr(), currPos, len, buf, off);
-            FileSystem.Statistics fileStatistics = new FileSystem.Statistics(fileSystem.getCephRgwStatistics());
-            fileStatistics.incrementBytesWritten(len);
+            long start = System.nanoTime();
+            try {
+                fileSystem.rgwWrite(fhPtr.getFsPtr(), fhPtr.getFhPtr(), currPos, len, buf, off);
+            } finally {
+                fileSystem.getNativeStatistics().record(CephRgwStorageStatistics.Op.WRITE, start);
+            }
+            currPos += len;
+        } catch (CephRgwException e) {
+            throw new IOException(String.format(Locale.ROOT, "write file to position:%d, length:%d failed.",
+                    currPos, len), e);
+        }
+    }
+
+    /**
+     * Write the remaining bytes of a ByteBuffer. Direct buffers are handed to librgw without an intermediate copy.
+     *
+     * @param buf the data to write, its position is advanced to its limit
+     * @throws IOException failure
+     */
+    public void write(ByteBuffer buf) throws IOException {
+        int len = buf.remaining();
+        if (!buf.isDirect()) {
+            if (buf.hasArray()) {
+                write(buf.array(), buf.arrayOffset() + buf.position(), len);
+                buf.position(buf.limit());
+            } else {
+                byte[] tmp = new byte[len];
+                buf.get(tmp);
+                write(tmp, 0, len);
+            }
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            try {
+                fileSystem.rgwWriteDirect(fhPtr.getFsPtr(), fhPtr.getFhPtr(), currPos, len, buf, buf.position());
+            } finally {
+                fileSystem.getNativeStatistics().record(CephRgwStorageStatistics.Op.WRITE, start);
+            }
+            buf.position(buf.limit());
             currPos += len;
         } catch (CephRgwException e) {
             throw new IOException(String.format(Locale.ROOT, "write file to position:%d, length:%d failed.",
@@ -65,6 +108,7 @@ public class CephRgwOutputStream extends OutputStream {
     @Override
     public void close() throws IOException {
         fhPtr.close();
+        fileSystem.invalidateMetadata(path);
         super.close();
     }
-}
\ No newline at end of file
+}
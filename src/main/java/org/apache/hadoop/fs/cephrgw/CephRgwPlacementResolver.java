@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Placement of the RADOS objects behind a librgw file.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Resolves the hosts that store a stripe of an object. RGW stores an object as RADOS objects of
+ * one striping unit each, stripe i holds the bytes from i * unit to (i + 1) * unit.
+ * Implementations are named by fs.ceph.rgw.placement.resolver.impl and must be thread safe.
+ */
+public interface CephRgwPlacementResolver {
+    /**
+     * Set up the resolver.
+     *
+     * @param uri the file system uri, its authority is the bucket
+     * @param conf the configuration
+     * @throws IOException failure
+     */
+    void initialize(URI uri, Configuration conf) throws IOException;
+
+    /**
+     * Resolve the hosts of a stripe.
+     *
+     * @param bucket the bucket
+     * @param key the object key
+     * @param stripeIndex the stripe index
+     * @return the hosts holding the stripe, primary first; empty if unknown
+     * @throws IOException failure
+     */
+    String[] getHosts(String bucket, String key, long stripeIndex) throws IOException;
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Parallel directory rename of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renames a directory tree object by object, because librgw only renames files.
+ * Every directory is handled by one task on a work-stealing pool: it creates the matching target
+ * directory, renames its files with rgw_rename and forks a task per subdirectory. The emptied source
+ * directories are removed deepest first once all files have moved.
+ */
+class CephRgwRenameEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CephRgwRenameEngine.class);
+
+    private final CephRgwFileSystem fileSystem;
+    private final ForkJoinPool pool;
+    private final ConcurrentLinkedQueue<Path> sourceDirs = new ConcurrentLinkedQueue<>();
+
+    CephRgwRenameEngine(CephRgwFileSystem fileSystem, ForkJoinPool pool) {
+        this.fileSystem = fileSystem;
+        this.pool = pool;
+    }
+
+    /**
+     * Move a directory tree to a target that does not exist yet.
+     *
+     * @param src the absolute source directory
+     * @param dst the absolute target directory
+     * @throws IOException failure, the files moved so far stay at the target
+     */
+    void renameTree(Path src, Path dst) throws IOException {
+        fileSystem.mkdirs(dst);
+        try {
+            pool.invoke(new DirTask(src, dst));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        List<Path> dirs = new ArrayList<>(sourceDirs);
+        dirs.sort(Comparator.comparingInt(Path::depth).reversed());
+        for (Path dir : dirs) {
+            removeEmptyDir(dir);
+        }
+    }
+
+    private void removeEmptyDir(Path dir) throws IOException {
+        try (LibRGWFH parentFh = fileSystem.getFileHandleByAbsPath(dir.getParent(),
+                CephRgwFileSystem.LOOKUP_FLAG_NONE, true, false)) {
+            long start = System.nanoTime();
+            try {
+                fileSystem.rgwUnlink(parentFh.getFsPtr(), parentFh.getFhPtr(), dir.getName());
+            } finally {
+                fileSystem.getNativeStatistics().record(CephRgwStorageStatistics.Op.UNLINK, start);
+            }
+        } catch (CephRgwException e) {
+            if (e.getErrcode() == CephRgwFileSystem.ERR_DIR_NOT_EMPTY) {
+                LOGGER.warn("Source directory {} is not empty after rename, keeping it.", dir);
+            } else if (e.getErrcode() != CephRgwFileSystem.ERR_NOT_EXISTS) {
+                throw new IOException(String.format(Locale.ROOT, "delete path %s failed.", dir), e);
+            }
+        }
+    }
+
+    private class DirTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path src;
+        private final Path dst;
+
+        DirTask(Path src, Path dst) {
+            this.src = src;
+            this.dst = dst;
+        }
+
+        @Override
+        protected void compute() {
+            try (LibRGWFH srcFh = fileSystem.getFileHandleByAbsPath(src, CephRgwFileSystem.LOOKUP_FLAG_NONE,
+                    true, false);
+                 LibRGWFH dstFh = fileSystem.getFileHandleByAbsPath(dst, CephRgwFileSystem.LOOKUP_FLAG_DIR,
+                    true, false, srcFh.getMount())) {
+                // List everything first, moving entries out of a directory would disturb the readdir cookie.
+                List<FileStatus> entries = new ArrayList<>();
+                try (CephRgwDirectoryLister iter = fileSystem.listDirectory(src, srcFh)) {
+                    while (iter.hasNext()) {
+                        entries.add(iter.next());
+                    }
+                }
+                List<RecursiveAction> tasks = new ArrayList<>(entries.size());
+                for (FileStatus entry : entries) {
+                    Path target = new Path(dst, entry.getPath().getName());
+                    if (entry.isDirectory()) {
+                        fileSystem.mkdirs(target);
+                        tasks.add(new DirTask(entry.getPath(), target));
+                    } else {
+                        tasks.add(new FileTask(entry.getPath(), srcFh, target, dstFh));
+                    }
+                }
+                invokeAll(tasks);
+                sourceDirs.add(src);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private class FileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path src;
+        private final LibRGWFH srcParentFh;
+        private final Path dst;
+        private final LibRGWFH dstParentFh;
+
+        FileTask(Path src, LibRGWFH srcParentFh, Path dst, LibRGWFH dstParentFh) {
+            this.src = src;
+            this.srcParentFh = srcParentFh;
+            this.dst = dst;
+            this.dstParentFh = dstParentFh;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                fileSystem.renameFile(src, srcParentFh, dst, dstParentFh);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Static host map placement for librgw files.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Locale;
+
+/**
+ * Placement from a fixed host list: a stripe goes to the host picked by a hash of the object name
+ * and stripe index, and its replicas to the hosts after it. It stands in for the cluster map in tests
+ * and on small co-located clusters whose layout is known.
+ */
+public class CephRgwStaticPlacementResolver implements CephRgwPlacementResolver {
+    private String[] hosts;
+    private int replicas;
+
+    @Override
+    public void initialize(URI uri, Configuration conf) throws IOException {
+        hosts = conf.getTrimmedStrings("fs.ceph.rgw.placement.static.hosts");
+        if (hosts.length == 0) {
+            throw new IOException("fs.ceph.rgw.placement.static.hosts is not set.");
+        }
+        replicas = Math.max(1, Math.min(conf.getInt("fs.ceph.rgw.placement.static.replicas", 3), hosts.length));
+    }
+
+    @Override
+    public String[] getHosts(String bucket, String key, long stripeIndex) {
+        String objectName = String.format(Locale.ROOT, "%s/%s.%d", bucket, key, stripeIndex);
+        int first = Math.floorMod(objectName.hashCode(), hosts.length);
+        String[] ret = new String[replicas];
+        for (int i = 0; i < replicas; i++) {
+            ret[i] = hosts[(first + i) % hosts.length];
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Storage statistics of the librgw calls of a file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.StorageStatistics;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.Interns;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts and times every librgw call of a file system, per operation. For an operation op it tracks
+ * op_calls, op_total_us, op_max_us and the op_p50_us, op_p90_us and op_p99_us percentiles. The same
+ * values are published through metrics2 when fs.ceph.rgw.metrics.enabled is set, together with the librgw
+ * options of the process as tags. Other components of the file system register their own values with
+ * {@link #register}.
+ */
+public class CephRgwStorageStatistics extends StorageStatistics implements MetricsSource {
+    public static final String NAME = "CephRgwStorageStatistics";
+
+    private static final String CALLS = "_calls";
+    private static final String TOTAL = "_total_us";
+    private static final String MAX = "_max_us";
+    private static final String P50 = "_p50_us";
+    private static final String P90 = "_p90_us";
+    private static final String P99 = "_p99_us";
+    private static final String[] SUFFIXES = {CALLS, TOTAL, MAX, P50, P90, P99};
+
+    /**
+     * The timed librgw operations.
+     */
+    public enum Op {
+        LOOKUP, GETATTR, READ, WRITE, READDIR, UNLINK, MKDIR, RENAME;
+
+        private final String symbol = name().toLowerCase(Locale.ROOT);
+
+        public String getSymbol() {
+            return symbol;
+        }
+    }
+
+    private final String fsUri;
+    private final Map<String, String> nativeOptions;
+    private final CephRgwLatencyHistogram[] histograms = new CephRgwLatencyHistogram[Op.values().length];
+    private final Map<String, Registered> registered = new LinkedHashMap<>();
+
+    CephRgwStorageStatistics(String fsUri, Map<String, String> nativeOptions) {
+        super(NAME);
+        this.fsUri = fsUri;
+        this.nativeOptions = nativeOptions;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new CephRgwLatencyHistogram();
+        }
+    }
+
+    /**
+     * Record a finished call.
+     *
+     * @param op the operation
+     * @param startNanos the System#nanoTime when the call started
+     */
+    void record(Op op, long startNanos) {
+        histograms[op.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Publish a value owned by another component under the given key. The value is read on every query and
+     * is left alone by {@link #reset()}.
+     *
+     * @param key the statistic key
+     * @param description the metrics2 description
+     * @param counter whether the value only grows, it is published as a counter then and as a gauge otherwise
+     * @param value reads the current value
+     */
+    synchronized void register(String key, String description, boolean counter, LongSupplier value) {
+        registered.put(key, new Registered(description, counter, value));
+    }
+
+    private synchronized List<Map.Entry<String, Registered>> registered() {
+        return new ArrayList<>(registered.entrySet());
+    }
+
+    @Override
+    public String getScheme() {
+        return CephRgwFileSystem.SCHEME;
+    }
+
+    @Override
+    public Iterator<LongStatistic> getLongStatistics() {
+        List<LongStatistic> ret = new ArrayList<>(histograms.length * SUFFIXES.length);
+        for (Op op : Op.values()) {
+            for (String suffix : SUFFIXES) {
+                ret.add(new LongStatistic(op.getSymbol() + suffix, valueOf(histograms[op.ordinal()], suffix)));
+            }
+        }
+        for (Map.Entry<String, Registered> entry : registered()) {
+            ret.add(new LongStatistic(entry.getKey(), entry.getValue().value.getAsLong()));
+        }
+        return Collections.unmodifiableList(ret).iterator();
+    }
+
+    @Override
+    public Long getLong(String key) {
+        for (Op op : Op.values()) {
+            if (key.startsWith(op.getSymbol() + "_")) {
+                String suffix = key.substring(op.getSymbol().length());
+                for (String known : SUFFIXES) {
+                    if (known.equals(suffix)) {
+                        return valueOf(histograms[op.ordinal()], suffix);
+                    }
+                }
+            }
+        }
+        Registered value;
+        synchronized (this) {
+            value = registered.get(key);
+        }
+        return value == null ? null : value.value.getAsLong();
+    }
+
+    @Override
+    public boolean isTracked(String key) {
+        return getLong(key) != null;
+    }
+
+    @Override
+    public void reset() {
+        for (CephRgwLatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public void getMetrics(MetricsCollector collector, boolean all) {
+        MetricsRecordBuilder builder = collector.addRecord(NAME)
+                .setContext(CephRgwFileSystem.SCHEME)
+                .tag(Interns.info("FsURI", "the file system uri"), fsUri);
+        for (Map.Entry<String, String> option : nativeOptions.entrySet()) {
+            builder.tag(Interns.info("librgw." + option.getKey(), "librgw option " + option.getKey()),
+                    option.getValue());
+        }
+        for (Op op : Op.values()) {
+            CephRgwLatencyHistogram histogram = histograms[op.ordinal()];
+            builder.addCounter(Interns.info(op.getSymbol() + CALLS, "librgw " + op.getSymbol() + " calls"),
+                    histogram.getCount());
+            builder.addCounter(Interns.info(op.getSymbol() + TOTAL, "librgw " + op.getSymbol() + " total time"),
+                    histogram.getTotalMicros());
+            for (String suffix : new String[] {MAX, P50, P90, P99}) {
+                builder.addGauge(Interns.info(op.getSymbol() + suffix, "librgw " + op.getSymbol() + " latency"),
+                        valueOf(histogram, suffix));
+            }
+        }
+        for (Map.Entry<String, Registered> entry : registered()) {
+            Registered value = entry.getValue();
+            if (value.counter) {
+                builder.addCounter(Interns.info(entry.getKey(), value.description), value.value.getAsLong());
+            } else {
+                builder.addGauge(Interns.info(entry.getKey(), value.description), value.value.getAsLong());
+            }
+        }
+    }
+
+    private static long valueOf(CephRgwLatencyHistogram histogram, String suffix) {
+        switch (suffix) {
+            case CALLS:
+                return histogram.getCount();
+            case TOTAL:
+                return histogram.getTotalMicros();
+            case MAX:
+                return histogram.getMaxMicros();
+            case P50:
+                return histogram.getPercentileMicros(50);
+            case P90:
+                return histogram.getPercentileMicros(90);
+            default:
+                return histogram.getPercentileMicros(99);
+        }
+    }
+
+    private static final class Registered {
+        private final String description;
+        private final boolean counter;
+        private final LongSupplier value;
+
+        private Registered(String description, boolean counter, LongSupplier value) {
+            this.description = description;
+            this.counter = counter;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Parallel content summary of a librgw directory tree.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adds up the lengths, files and directories met by a {@link CephRgwDirectoryWalk}. Lengths come from
+ * the stat that readdir returns with every entry, no child is looked up again.
+ */
+class CephRgwSummaryEngine implements CephRgwDirectoryWalk.Visitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CephRgwSummaryEngine.class);
+
+    private final CephRgwDirectoryWalk walk;
+    private final LongAdder length = new LongAdder();
+    private final LongAdder fileCount = new LongAdder();
+    // The root of the walk counts as a directory, like in FileSystem#getContentSummary.
+    private final LongAdder directoryCount = new LongAdder();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    CephRgwSummaryEngine(CephRgwFileSystem fileSystem, ForkJoinPool pool) {
+        this.walk = new CephRgwDirectoryWalk(fileSystem, pool, this);
+    }
+
+    /**
+     * Summarize a directory tree.
+     *
+     * @param dirPath the absolute directory path
+     * @return the content summary of the tree
+     * @throws IOException the first failure, FileNotFoundException if the directory is gone
+     */
+    ContentSummary summarize(Path dirPath) throws IOException {
+        long start = System.currentTimeMillis();
+        directoryCount.increment();
+        walk.start(dirPath);
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            walk.stop(null);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while summarizing " + dirPath);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Summarize " + dirPath + " failed.", e.getCause());
+        }
+        LOGGER.debug("Summarized {} files and {} directories under {} in {} ms.", fileCount.sum(),
+                directoryCount.sum(), dirPath, System.currentTimeMillis() - start);
+        long totalLength = length.sum();
+        return new ContentSummary.Builder()
+                .length(totalLength)
+                .fileCount(fileCount.sum())
+                .directoryCount(directoryCount.sum())
+                .spaceConsumed(totalLength)
+                .build();
+    }
+
+    @Override
+    public void visitDirectory(FileStatus status) {
+        directoryCount.increment();
+    }
+
+    @Override
+    public boolean visitFile(FileStatus status) {
+        fileCount.increment();
+        length.add(status.getLen());
+        return true;
+    }
+
+    @Override
+    public void finished(IOException failure) {
+        if (failure != null) {
+            done.completeExceptionally(failure);
+        } else {
+            done.complete(null);
+        }
+    }
+}
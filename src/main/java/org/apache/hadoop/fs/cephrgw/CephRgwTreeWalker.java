@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Parallel recursive file listing of a librgw file system.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterator over the files below a directory, fed by a {@link CephRgwDirectoryWalk}.
+ *
+ * Ordering: files of one directory come in readdir order, there is no order between the files of
+ * different directories. Directories themselves are not returned. A failure of the walk is thrown by the
+ * iterator.
+ *
+ * At most fs.ceph.rgw.list.queue.size files wait for the caller, the listing tasks block until it catches
+ * up. A caller that stops early closes the iterator, which stops the tasks and frees the pool.
+ */
+class CephRgwTreeWalker implements RemoteIterator<LocatedFileStatus>, Closeable, CephRgwDirectoryWalk.Visitor {
+    private static final LocatedFileStatus END = new LocatedFileStatus();
+    private static final long OFFER_POLL_MS = 100;
+
+    private final CephRgwFileSystem fileSystem;
+    private final CephRgwDirectoryWalk walk;
+    private final LinkedBlockingQueue<LocatedFileStatus> results;
+    private volatile boolean stopped;
+    private volatile IOException failure;
+    private LocatedFileStatus next;
+    private boolean done;
+
+    /**
+     * Start walking a directory.
+     *
+     * @param fileSystem the owner file system
+     * @param pool the pool that lists the directories
+     * @param dirPath the absolute directory path
+     * @param queueSize the most files that wait for the caller
+     */
+    CephRgwTreeWalker(CephRgwFileSystem fileSystem, ForkJoinPool pool, Path dirPath, int queueSize) {
+        this.fileSystem = fileSystem;
+        this.walk = new CephRgwDirectoryWalk(fileSystem, pool, this);
+        this.results = new LinkedBlockingQueue<>(Math.max(queueSize, 1));
+        fileSystem.walkerStarted(this);
+        walk.start(dirPath);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (next != null) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
+        try {
+            next = results.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing files.");
+        }
+        // After a stop the queue may still hold files listed before it, they are dropped.
+        if (next == END || stopped) {
+            next = null;
+            done = true;
+            if (failure != null) {
+                throw failure;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public LocatedFileStatus next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more files.");
+        }
+        LocatedFileStatus ret = next;
+        next = null;
+        return ret;
+    }
+
+    /**
+     * Stop the walk, the iterator has no more files afterwards.
+     */
+    @Override
+    public void close() {
+        stop(null);
+    }
+
+    /**
+     * Stop the walk because the file system is closed, the iterator throws the given failure.
+     *
+     * @param e the failure
+     */
+    void cancel(IOException e) {
+        stop(e);
+    }
+
+    @Override
+    public void visitDirectory(FileStatus status) {
+    }
+
+    @Override
+    public boolean visitFile(FileStatus status) throws IOException {
+        return publish(fileSystem.toLocatedFileStatus(status));
+    }
+
+    @Override
+    public void finished(IOException e) {
+        if (e != null) {
+            stop(e);
+            return;
+        }
+        try {
+            if (publish(END)) {
+                fileSystem.walkerDone(this);
+            }
+        } catch (InterruptedIOException ie) {
+            stop(ie);
+        }
+    }
+
+    private synchronized void stop(IOException e) {
+        if (stopped) {
+            return;
+        }
+        failure = e;
+        stopped = true;
+        walk.stop(e);
+        // Wake a caller blocked in hasNext, listing tasks blocked on the full queue see the flag and give up.
+        results.clear();
+        results.offer(END);
+        fileSystem.walkerDone(this);
+    }
+
+    /**
+     * Hand a file to the caller, waiting while the queue is full.
+     *
+     * @param status the file, or END
+     * @return false if the walk was stopped
+     */
+    private boolean publish(LocatedFileStatus status) throws InterruptedIOException {
+        try {
+            while (!stopped) {
+                if (results.offer(status, OFFER_POLL_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing files.");
+        }
+    }
+}
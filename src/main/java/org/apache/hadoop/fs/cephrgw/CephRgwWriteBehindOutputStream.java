@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) Huawei Technologies Co., Ltd. 2020-2020. All rights reserved.
+ *
+ * Description: Write-behind output stream for librgw native call.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs.cephrgw;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Buffers writes and hands full buffers to librgw on the write executor, so the writer fills the next buffer
+ * while the previous one is being written. Buffers are written one at a time in submission order, which
+ * keeps the file offsets of the underlying {@link CephRgwOutputStream} strictly sequential.
+ * A failed background write is rethrown by the next write, flush or close.
+ * Buffers are borrowed from the write buffer pool of the file system. When the pool is exhausted the stream
+ * waits for its own buffers to come back from librgw, and without any buffer it writes through.
+ */
+class CephRgwWriteBehindOutputStream extends OutputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CephRgwWriteBehindOutputStream.class);
+
+    private final CephRgwFileSystem fileSystem;
+    private final CephRgwOutputStream out;
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final Object queueLock = new Object();
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    private boolean draining = false;
+    private boolean buffersReleased = false;
+    private volatile IOException failure;
+    private ByteBuffer current;
+    private int ownedBuffers = 0;
+    private boolean bufferWaited = false;
+    private boolean closed = false;
+
+    /**
+     * Create a write-behind stream.
+     *
+     * @param fileSystem the owner file system
+     * @param out the stream that writes to librgw
+     * @param bufferSize the size of each buffer
+     * @param maxInFlight the number of buffers that may wait for librgw, 0 writes in the caller thread
+     */
+    CephRgwWriteBehindOutputStream(CephRgwFileSystem fileSystem, CephRgwOutputStream out, int bufferSize,
+            int maxInFlight) {
+        this.fileSystem = fileSystem;
+        this.out = out;
+        this.bufferSize = bufferSize;
+        this.maxBuffers = Math.max(maxInFlight, 0) + 1;
+    }
+
+    @Override
+    public synchronized void write(int byteData) throws IOException {
+        checkOpen();
+        if (!acquireCurrent()) {
+            awaitPending();
+            out.write(new byte[] {(byte) byteData}, 0, 1);
+            return;
+        }
+        current.put((byte) byteData);
+        if (!current.hasRemaining()) {
+            sendBuffer();
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] buf, int off, int len) throws IOException {
+        checkOpen();
+        int written = 0;
+        while (written < len) {
+            if (!acquireCurrent()) {
+                awaitPending();
+                out.write(buf, off + written, len - written);
+                return;
+            }
+            int size = Math.min(len - written, current.remaining());
+            current.put(buf, off + written, size);
+            written += size;
+            if (!current.hasRemaining()) {
+                sendBuffer();
+            }
+        }
+    }
+
+    /**
+     * Write the remaining bytes of a ByteBuffer. Small writes are buffered, large ones wait for the
+     * pending buffers and then go to librgw directly, without an intermediate copy for direct buffers.
+     * FSDataOutputStream does not see these bytes, so they are counted here, and
+     * {@link CephRgwDataOutputStream} adds them to its position.
+     *
+     * @param src the data to write
+     * @throws IOException failure
+     */
+    synchronized void write(ByteBuffer src) throws IOException {
+        checkOpen();
+        int len = src.remaining();
+        fileSystem.getCephRgwStatistics().incrementBytesWritten(len);
+        if (len < bufferSize && acquireCurrent()) {
+            if (len > current.remaining()) {
+                sendBuffer();
+                if (!acquireCurrent()) {
+                    awaitPending();
+                    out.write(src);
+                    return;
+                }
+            }
+            current.put(src);
+            return;
+        }
+        if (current != null && current.position() > 0) {
+            sendBuffer();
+        }
+        awaitPending();
+        out.write(src);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (current != null && current.position() > 0) {
+            sendBuffer();
+        }
+        awaitPending();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (failure == null && current != null && current.position() > 0) {
+                sendBuffer();
+            }
+            awaitPending();
+        } finally {
+            try {
+                out.close();
+            } finally {
+                releaseBuffers();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed.");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("A previous write failed.", failure);
+        }
+    }
+
+    /**
+     * Make sure there is a buffer to fill. A returned buffer is reused first, then the pool is asked for
+     * a new one while the stream owns fewer than maxBuffers, and finally the stream waits for one of its
+     * buffers in flight.
+     *
+     * @return false if the stream has no buffer and has to write through
+     */
+    private boolean acquireCurrent() throws IOException {
+        if (current != null) {
+            return true;
+        }
+        synchronized (queueLock) {
+            current = freeBuffers.poll();
+        }
+        if (current == null && ownedBuffers < maxBuffers) {
+            // Only the first buffer waits for pool memory, later ones fall back to the stream's own buffers.
+            long waitMs = ownedBuffers == 0 && !bufferWaited ? fileSystem.getBufferPoolWaitMs() : 0;
+            bufferWaited |= ownedBuffers == 0;
+            current = fileSystem.getWriteBufferPool().acquire(bufferSize, waitMs);
+            if (current != null) {
+                ownedBuffers++;
+            } else if (ownedBuffers == 0) {
+                LOGGER.debug("no memory for a {} byte write buffer, writing through. {}", bufferSize,
+                        fileSystem.getWriteBufferPool());
+            }
+        }
+        if (current == null && ownedBuffers > 0) {
+            synchronized (queueLock) {
+                while (freeBuffers.isEmpty() && draining) {
+                    waitQueue();
+                }
+                current = freeBuffers.poll();
+            }
+        }
+        if (current != null) {
+            current.clear();
+            current.limit(bufferSize);
+        }
+        return current != null;
+    }
+
+    private void sendBuffer() throws IOException {
+        ByteBuffer data = current;
+        data.flip();
+        if (maxBuffers == 1) {
+            try {
+                out.write(data);
+            } finally {
+                data.clear();
+                data.limit(bufferSize);
+            }
+            return;
+        }
+        current = null;
+        boolean startDrainer;
+        synchronized (queueLock) {
+            pending.add(data);
+            startDrainer = !draining;
+            draining = true;
+        }
+        if (startDrainer) {
+            try {
+                fileSystem.getWriteExecutor().execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("write behind rejected, writing in caller", e);
+                drain();
+            }
+        }
+        checkFailure();
+    }
+
+    private void drain() {
+        while (true) {
+            ByteBuffer data;
+            synchronized (queueLock) {
+                data = pending.poll();
+                if (data == null) {
+                    draining = false;
+                    queueLock.notifyAll();
+                    return;
+                }
+            }
+            try {
+                // After a failure the remaining buffers are dropped so that no write lands at a wrong offset.
+                if (failure == null) {
+                    out.write(data);
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException("write behind failed.", e);
+            } finally {
+                synchronized (queueLock) {
+                    if (buffersReleased) {
+                        fileSystem.getWriteBufferPool().release(data);
+                    } else {
+                        freeBuffers.add(data);
+                    }
+                    queueLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void awaitPending() throws IOException {
+        synchronized (queueLock) {
+            while (draining) {
+                waitQueue();
+            }
+        }
+        checkFailure();
+    }
+
+    private void waitQueue() throws InterruptedIOException {
+        try {
+            queueLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for pending writes.");
+        }
+    }
+
+    private void releaseBuffers() {
+        synchronized (queueLock) {
+            // Buffers still in flight, after an interrupted close, are released by the drainer.
+            buffersReleased = true;
+            CephRgwBufferPool pool = fileSystem.getWriteBufferPool();
+            pool.release(current);
+            current = null;
+            while (!freeBuffers.isEmpty()) {
+                pool.release(freeBuffers.poll());
+            }
+            ownedBuffers = 0;
+        }
+    }
+}
@@ -21,56 +21,103 @@
 package org.apache.hadoop.fs.cephrgw;
 
 import org.apache.hadoop.fs.FileStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * File handle class for librgw.
+ * A handle is reference counted, it starts with the reference of its creator and the native handle is
+ * closed when the last reference is released. A handle cache holds a reference of its own, which only the
+ * cache gives back, so a user that closes its handle twice cannot close a handle that is still cached.
  */
 class LibRGWFH implements Closeable {
-    private final CephRgwFileSystem fileSystem;
-    private long fhPtrLong;
+    private static final Logger LOGGER = LoggerFactory.getLogger(LibRGWFH.class);
+    private final CephRgwMount mount;
+    private volatile long fhPtrLong;
     private FileStatus fileStatus;
-    private int refNum = 1;
-    private boolean cache;
+    private final AtomicInteger refNum = new AtomicInteger(1);
+    private final AtomicInteger cacheRefs = new AtomicInteger();
 
-    LibRGWFH(CephRgwFileSystem fileSystem, long fhPtr, FileStatus fileStatus, boolean cache) {
-        this.fileSystem = fileSystem;
+    LibRGWFH(CephRgwMount mount, long fhPtr, FileStatus fileStatus) {
+        this.mount = mount;
         this.fhPtrLong = fhPtr;
         this.fileStatus = fileStatus;
-        this.cache = cache;
     }
 
+    /**
+     * Release a reference. The references held by handle caches are left alone, a release that would take
+     * one of them is ignored.
+     */
     @Override
-    public synchronized void close() {
-        if (this == fileSystem.getRootFH()) {
+    public void close() {
+        if (this == mount.getRootFH()) {
             return;
         }
-        if (!cache) {
-            doClose();
-            return;
-        }
-        refNum--;
-        if (refNum == 0) {
-            synchronized (CephRgwFileSystem.FH_CACHE_MAP) {
-                if (!CephRgwFileSystem.FH_CACHE_MAP.containsKey(fileStatus.getPath().toString())) {
-                    doClose();
-                }
+        int curr;
+        do {
+            curr = refNum.get();
+            if (curr <= cacheRefs.get()) {
+                LOGGER.debug("Ignoring a release of handle {}, only cached references are left.", fhPtrLong);
+                return;
             }
+        } while (!refNum.compareAndSet(curr, curr - 1));
+        if (curr == 1) {
+            doClose();
         }
+    }
 
+    /**
+     * Take a reference, the caller must already hold one or own it through the handle cache.
+     */
+    void retain() {
+        refNum.incrementAndGet();
     }
 
-    synchronized void ref() {
-        refNum++;
+    /**
+     * Take the reference of a handle cache, the caller must already hold one.
+     */
+    void retainCached() {
+        cacheRefs.incrementAndGet();
+        refNum.incrementAndGet();
+    }
+
+    /**
+     * Give back the reference of a handle cache once the handle left it.
+     */
+    void releaseCached() {
+        cacheRefs.decrementAndGet();
+        if (refNum.decrementAndGet() == 0) {
+            doClose();
+        }
     }
 
     void doClose() {
-        fileSystem.rgwClose(fileSystem.getRgwFsPtr(), fhPtrLong);
+        mount.getFileSystem().rgwClose(mount.getFsPtr(), fhPtrLong);
         fhPtrLong = 0;
     }
 
+    /**
+     * The mount that opened the handle, it is only valid in calls on that mount.
+     *
+     * @return the mount
+     */
+    CephRgwMount getMount() {
+        return mount;
+    }
+
+    /**
+     * The librgw file system pointer to pass along with the handle.
+     *
+     * @return the pointer of the mount
+     */
+    long getFsPtr() {
+        return mount.getFsPtr();
+    }
+
     FileStatus getFileStatus() throws IOException {
         return fileStatus;
     }